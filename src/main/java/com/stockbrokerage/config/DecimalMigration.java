@@ -0,0 +1,46 @@
+package com.stockbrokerage.config;
+
+import com.stockbrokerage.entity.Holding;
+import com.stockbrokerage.entity.Wallet;
+import jakarta.annotation.PostConstruct;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.bson.Document;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.aggregation.AggregationUpdate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+
+/**
+ * Converts amounts written before they were stored as Decimal128, which cannot take {@code $inc}.
+ * Runs while the context is still being built, before Kafka listeners, schedulers and the web
+ * server start; the account state cache depends on it, so nothing writes wallets before it is done.
+ */
+@Component
+@RequiredArgsConstructor
+@Slf4j
+public class DecimalMigration {
+
+    private final MongoTemplate mongoTemplate;
+
+    @PostConstruct
+    public void migrate() {
+        convertToDecimal(Wallet.class, "balance", "lockedBalance");
+        convertToDecimal(Holding.class, "averagePrice", "totalCost");
+    }
+
+    private void convertToDecimal(Class<?> entity, String... fields) {
+        for (String field : fields) {
+            long converted = mongoTemplate.updateMulti(Query.query(Criteria.where(field).type(2)), // BSON string
+                    AggregationUpdate.from(List.of(context -> new Document("$set",
+                            new Document(field, new Document("$toDecimal", "$" + field))))),
+                    entity).getModifiedCount();
+            if (converted > 0) {
+                log.info("Converted {} {}.{} values to Decimal128", converted, entity.getSimpleName(), field);
+            }
+        }
+    }
+}
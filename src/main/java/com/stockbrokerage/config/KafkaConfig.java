@@ -1,7 +1,12 @@
 package com.stockbrokerage.config;
 
+import com.stockbrokerage.events.MarketDataEvent;
+import com.stockbrokerage.events.OrderPlacedEvent;
+import com.stockbrokerage.events.PortfolioUpdateEvent;
+import com.stockbrokerage.events.TradeExecutedEvent;
 import org.apache.kafka.clients.admin.NewTopic;
 import org.apache.kafka.clients.consumer.ConsumerConfig;
+import org.apache.kafka.clients.consumer.RangeAssignor;
 import org.apache.kafka.clients.producer.ProducerConfig;
 import org.apache.kafka.common.serialization.StringDeserializer;
 import org.apache.kafka.common.serialization.StringSerializer;
@@ -44,8 +49,80 @@ public class KafkaConfig {
         return new KafkaTemplate<>(producerFactory());
     }
 
+    @Value("${app.kafka.partitions.market-data:3}")
+    private int marketDataPartitions;
+
+    @Value("${app.kafka.partitions.order-events:3}")
+    private int orderEventPartitions;
+
+    @Value("${app.kafka.partitions.trade-events:3}")
+    private int tradeEventPartitions;
+
+    @Value("${app.kafka.partitions.portfolio-updates:3}")
+    private int portfolioUpdatePartitions;
+
+    @Value("${app.kafka.market-data.max-batch:500}")
+    private int marketDataMaxBatch;
+
+    @Value("${app.kafka.market-data.fetch-max-wait-ms:10}")
+    private int marketDataFetchMaxWaitMs;
+
+    @Value("${app.settlement.max-batch:500}")
+    private int settlementMaxBatch;
+
+    @Value("${app.kafka.trade-events.fetch-min-bytes:65536}")
+    private int tradeEventFetchMinBytes;
+
+    @Value("${app.kafka.trade-events.fetch-max-wait-ms:50}")
+    private int tradeEventFetchMaxWaitMs;
+
+    // One listener container factory per topic, each deserializing that topic's event type and
+    // running one consumer per partition, so every pipeline scales on its own
+
+    // Ticks are handed over a whole poll at a time, without waiting for a fetch to fill
+    @Bean
+    public ConcurrentKafkaListenerContainerFactory<String, MarketDataEvent> marketDataListenerContainerFactory() {
+        Map<String, Object> props = consumerProps(MarketDataEvent.class);
+        props.put(ConsumerConfig.MAX_POLL_RECORDS_CONFIG, marketDataMaxBatch);
+        props.put(ConsumerConfig.FETCH_MAX_WAIT_MS_CONFIG, marketDataFetchMaxWaitMs);
+        return factory(props, marketDataPartitions, true);
+    }
+
+    // Matching reads order-events and market-data in one group, so the consumer that owns a
+    // symbol's orders also gets its ticks: both are keyed by symbolId and, with the same partition
+    // count, range assignment hands partition n of each topic to the same consumer. Records are
+    // told apart by the producer's type header; order events without one are placements
+    @Bean
+    public ConcurrentKafkaListenerContainerFactory<String, Object> matchingListenerContainerFactory() {
+        if (orderEventPartitions != marketDataPartitions) {
+            throw new IllegalStateException("order-events and market-data must have the same partition count for "
+                    + "matching, got " + orderEventPartitions + " and " + marketDataPartitions);
+        }
+        Map<String, Object> props = consumerProps(OrderPlacedEvent.class);
+        props.put(JsonDeserializer.USE_TYPE_INFO_HEADERS, true);
+        props.put(ConsumerConfig.PARTITION_ASSIGNMENT_STRATEGY_CONFIG, RangeAssignor.class.getName());
+        props.put(ConsumerConfig.MAX_POLL_RECORDS_CONFIG, marketDataMaxBatch);
+        props.put(ConsumerConfig.FETCH_MAX_WAIT_MS_CONFIG, marketDataFetchMaxWaitMs);
+        return factory(props, orderEventPartitions, true);
+    }
+
+    // Settlement writes each poll in one round of bulk writes, up to app.settlement.max-batch
+    // records; the broker holds fetches back briefly so the batches fill
     @Bean
-    public ConsumerFactory<String, Object> consumerFactory() {
+    public ConcurrentKafkaListenerContainerFactory<String, TradeExecutedEvent> tradeEventListenerContainerFactory() {
+        Map<String, Object> props = consumerProps(TradeExecutedEvent.class);
+        props.put(ConsumerConfig.MAX_POLL_RECORDS_CONFIG, settlementMaxBatch);
+        props.put(ConsumerConfig.FETCH_MIN_BYTES_CONFIG, tradeEventFetchMinBytes);
+        props.put(ConsumerConfig.FETCH_MAX_WAIT_MS_CONFIG, tradeEventFetchMaxWaitMs);
+        return factory(props, tradeEventPartitions, true);
+    }
+
+    @Bean
+    public ConcurrentKafkaListenerContainerFactory<String, PortfolioUpdateEvent> portfolioUpdateListenerContainerFactory() {
+        return factory(consumerProps(PortfolioUpdateEvent.class), portfolioUpdatePartitions, false);
+    }
+
+    private Map<String, Object> consumerProps(Class<?> valueType) {
         Map<String, Object> props = new HashMap<>();
         props.put(ConsumerConfig.BOOTSTRAP_SERVERS_CONFIG, bootstrapServers);
         props.put(ConsumerConfig.GROUP_ID_CONFIG, groupId);
@@ -53,35 +130,39 @@ public class KafkaConfig {
         props.put(ConsumerConfig.VALUE_DESERIALIZER_CLASS_CONFIG, JsonDeserializer.class);
         props.put(ConsumerConfig.AUTO_OFFSET_RESET_CONFIG, "earliest");
         props.put(JsonDeserializer.TRUSTED_PACKAGES, "com.stockbrokerage.events");
-        props.put(JsonDeserializer.VALUE_DEFAULT_TYPE, "com.stockbrokerage.events.MarketDataEvent");
-        return new DefaultKafkaConsumerFactory<>(props);
+        // Each topic carries one event type: read it as that, ignoring the producer's type headers
+        props.put(JsonDeserializer.USE_TYPE_INFO_HEADERS, false);
+        props.put(JsonDeserializer.VALUE_DEFAULT_TYPE, valueType.getName());
+        return props;
     }
 
-    @Bean
-    public ConcurrentKafkaListenerContainerFactory<String, Object> kafkaListenerContainerFactory() {
-        ConcurrentKafkaListenerContainerFactory<String, Object> factory = new ConcurrentKafkaListenerContainerFactory<>();
-        factory.setConsumerFactory(consumerFactory());
+    private static <V> ConcurrentKafkaListenerContainerFactory<String, V> factory(Map<String, Object> props,
+                                                                                 int partitions, boolean batch) {
+        ConcurrentKafkaListenerContainerFactory<String, V> factory = new ConcurrentKafkaListenerContainerFactory<>();
+        factory.setConsumerFactory(new DefaultKafkaConsumerFactory<>(props));
+        factory.setConcurrency(partitions);
+        factory.setBatchListener(batch);
         return factory;
     }
 
     // Create Kafka topics automatically
     @Bean
     public NewTopic marketDataTopic() {
-        return new NewTopic("market-data", 3, (short) 1);
+        return new NewTopic("market-data", marketDataPartitions, (short) 1);
     }
 
     @Bean
     public NewTopic orderEventsTopic() {
-        return new NewTopic("order-events", 3, (short) 1);
+        return new NewTopic("order-events", orderEventPartitions, (short) 1);
     }
 
     @Bean
     public NewTopic tradeEventsTopic() {
-        return new NewTopic("trade-events", 3, (short) 1);
+        return new NewTopic("trade-events", tradeEventPartitions, (short) 1);
     }
 
     @Bean
     public NewTopic portfolioUpdatesTopic() {
-        return new NewTopic("portfolio-updates", 3, (short) 1);
+        return new NewTopic("portfolio-updates", portfolioUpdatePartitions, (short) 1);
     }
 }
\ No newline at end of file
@@ -54,7 +54,7 @@ public class SecurityConfig {
                 .requestMatchers(HttpMethod.POST, "/api/v1/market/initialize").permitAll()
                 .requestMatchers(HttpMethod.POST, "/api/v1/market/add").permitAll()
                 .requestMatchers(HttpMethod.DELETE, "/api/v1/market/remove/**").permitAll()
-                .requestMatchers("/actuator/health").permitAll()
+                .requestMatchers("/actuator/health", "/actuator/prometheus").permitAll()
                 .requestMatchers("/error").permitAll()
                 
                 // Web pages - public access
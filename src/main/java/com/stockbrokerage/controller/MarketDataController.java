@@ -6,12 +6,16 @@ import com.stockbrokerage.events.MarketDataEvent;
 import com.stockbrokerage.security.UserPrincipal;
 import com.stockbrokerage.service.MarketDataService;
 import com.stockbrokerage.service.StockSearchService;
+import com.stockbrokerage.service.TradeService;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.format.annotation.DateTimeFormat;
 import org.springframework.http.ResponseEntity;
 import org.springframework.security.core.annotation.AuthenticationPrincipal;
 import org.springframework.web.bind.annotation.*;
 
+import java.time.LocalDate;
+import java.time.LocalDateTime;
 import java.util.List;
 import java.util.Map;
 
@@ -23,6 +27,7 @@ public class MarketDataController {
 
     private final MarketDataService marketDataService;
     private final StockSearchService stockSearchService;
+    private final TradeService tradeService;
 
     @GetMapping("/symbols")
     public ResponseEntity<?> getAllSymbols() {
@@ -67,6 +72,23 @@ public class MarketDataController {
         }
     }
 
+    @GetMapping("/volume/{symbolId}")
+    public ResponseEntity<?> getVolume(@PathVariable String symbolId,
+                                       @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime from,
+                                       @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime to) {
+        try {
+            // Defaults to today's volume so far
+            LocalDateTime start = from != null ? from : LocalDate.now().atStartOfDay();
+            LocalDateTime end = to != null ? to : LocalDateTime.now();
+            long volume = tradeService.getVolume(symbolId, start, end);
+            return ResponseEntity.ok(Map.of("symbolId", symbolId, "from", start, "to", end, "volume", volume));
+        } catch (Exception e) {
+            log.error("Error getting volume", e);
+            return ResponseEntity.badRequest()
+                    .body(Map.of("error", "Failed to get volume", "message", e.getMessage()));
+        }
+    }
+
     @PostMapping("/initialize")
     public ResponseEntity<?> initializeMarketData() {
         try {
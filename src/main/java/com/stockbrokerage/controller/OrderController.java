@@ -1,5 +1,7 @@
 package com.stockbrokerage.controller;
 
+import com.stockbrokerage.dto.BatchOrderRequest;
+import com.stockbrokerage.dto.BatchOrderResponse;
 import com.stockbrokerage.dto.OrderRequest;
 import com.stockbrokerage.dto.OrderResponse;
 import com.stockbrokerage.security.UserPrincipal;
@@ -39,6 +41,20 @@ public class OrderController {
         }
     }
 
+    @PostMapping("/batch")
+    @PreAuthorize("hasRole('USER')")
+    public ResponseEntity<?> placeOrders(@Valid @RequestBody BatchOrderRequest request,
+                                        @AuthenticationPrincipal UserPrincipal userPrincipal) {
+        try {
+            BatchOrderResponse response = orderService.placeOrders(request.getOrders(), userPrincipal.getId());
+            return ResponseEntity.ok(response);
+        } catch (Exception e) {
+            log.error("Error placing order batch", e);
+            return ResponseEntity.badRequest()
+                    .body(Map.of("error", "Batch order placement failed", "message", e.getMessage()));
+        }
+    }
+
     @GetMapping
     @PreAuthorize("hasRole('USER')")
     public ResponseEntity<?> getUserOrders(@AuthenticationPrincipal UserPrincipal userPrincipal,
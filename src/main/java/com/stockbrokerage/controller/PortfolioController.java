@@ -1,16 +1,25 @@
 package com.stockbrokerage.controller;
 
 import com.stockbrokerage.dto.HoldingResponse;
+import com.stockbrokerage.dto.PortfolioHistoryPoint;
 import com.stockbrokerage.dto.PortfolioSummary;
+import com.stockbrokerage.dto.PortfolioValuation;
+import com.stockbrokerage.entity.Trade;
 import com.stockbrokerage.security.UserPrincipal;
+import com.stockbrokerage.service.PortfolioHistoryService;
 import com.stockbrokerage.service.PortfolioService;
+import com.stockbrokerage.service.TradeService;
+import com.stockbrokerage.valuation.ValuationEngine;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.format.annotation.DateTimeFormat;
 import org.springframework.http.ResponseEntity;
 import org.springframework.security.access.prepost.PreAuthorize;
 import org.springframework.security.core.annotation.AuthenticationPrincipal;
 import org.springframework.web.bind.annotation.*;
 
+import java.time.LocalDateTime;
+import java.time.YearMonth;
 import java.util.List;
 import java.util.Map;
 
@@ -21,6 +30,9 @@ import java.util.Map;
 public class PortfolioController {
 
     private final PortfolioService portfolioService;
+    private final TradeService tradeService;
+    private final PortfolioHistoryService portfolioHistoryService;
+    private final ValuationEngine valuationEngine;
 
     @GetMapping
     @PreAuthorize("hasRole('USER')")
@@ -35,6 +47,36 @@ public class PortfolioController {
         }
     }
 
+    @GetMapping("/valuation")
+    @PreAuthorize("hasRole('USER')")
+    public ResponseEntity<?> getValuation(@AuthenticationPrincipal UserPrincipal userPrincipal) {
+        try {
+            PortfolioValuation valuation = valuationEngine.getValuation(userPrincipal.getId());
+            return ResponseEntity.ok(valuation);
+        } catch (Exception e) {
+            log.error("Error getting portfolio valuation", e);
+            return ResponseEntity.badRequest()
+                    .body(Map.of("error", "Failed to get portfolio valuation", "message", e.getMessage()));
+        }
+    }
+
+    @GetMapping("/history")
+    @PreAuthorize("hasRole('USER')")
+    public ResponseEntity<?> getHistory(@AuthenticationPrincipal UserPrincipal userPrincipal,
+                                        @RequestParam(defaultValue = "12") int months) {
+        try {
+            // The current month and the months before it
+            YearMonth to = YearMonth.now();
+            List<PortfolioHistoryPoint> history = portfolioHistoryService.getHistory(userPrincipal.getId(),
+                    to.minusMonths(Math.max(months, 1) - 1), to);
+            return ResponseEntity.ok(history);
+        } catch (Exception e) {
+            log.error("Error getting portfolio history", e);
+            return ResponseEntity.badRequest()
+                    .body(Map.of("error", "Failed to get portfolio history", "message", e.getMessage()));
+        }
+    }
+
     @GetMapping("/holdings")
     @PreAuthorize("hasRole('USER')")
     public ResponseEntity<?> getHoldings(@AuthenticationPrincipal UserPrincipal userPrincipal) {
@@ -47,4 +89,22 @@ public class PortfolioController {
                     .body(Map.of("error", "Failed to get holdings", "message", e.getMessage()));
         }
     }
-}
\ No newline at end of file
+
+    @GetMapping("/trades")
+    @PreAuthorize("hasRole('USER')")
+    public ResponseEntity<?> getTrades(@AuthenticationPrincipal UserPrincipal userPrincipal,
+                                       @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime from,
+                                       @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime to,
+                                       @RequestParam(defaultValue = "100") int limit) {
+        try {
+            LocalDateTime end = to != null ? to : LocalDateTime.now();
+            LocalDateTime start = from != null ? from : end.minusDays(30);
+            List<Trade> trades = tradeService.getUserTrades(userPrincipal.getId(), start, end, Math.min(limit, 1000));
+            return ResponseEntity.ok(trades);
+        } catch (Exception e) {
+            log.error("Error getting trades", e);
+            return ResponseEntity.badRequest()
+                    .body(Map.of("error", "Failed to get trades", "message", e.getMessage()));
+        }
+    }
+}
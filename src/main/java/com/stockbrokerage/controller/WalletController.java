@@ -1,8 +1,10 @@
 package com.stockbrokerage.controller;
 
 import com.paypal.orders.Order;
+import com.stockbrokerage.entity.LedgerEntry;
 import com.stockbrokerage.entity.Wallet;
 import com.stockbrokerage.security.UserPrincipal;
+import com.stockbrokerage.service.LedgerService;
 import com.stockbrokerage.service.PayPalService;
 import com.stockbrokerage.service.WalletService;
 import lombok.RequiredArgsConstructor;
@@ -13,6 +15,7 @@ import org.springframework.security.core.annotation.AuthenticationPrincipal;
 import org.springframework.web.bind.annotation.*;
 
 import java.math.BigDecimal;
+import java.util.List;
 import java.util.Map;
 
 @RestController
@@ -23,6 +26,7 @@ public class WalletController {
 
     private final WalletService walletService;
     private final PayPalService payPalService;
+    private final LedgerService ledgerService;
 
     @GetMapping
     @PreAuthorize("hasRole('USER')")
@@ -37,6 +41,21 @@ public class WalletController {
         }
     }
 
+    @GetMapping("/ledger")
+    @PreAuthorize("hasRole('USER')")
+    public ResponseEntity<?> getLedger(@AuthenticationPrincipal UserPrincipal userPrincipal,
+                                       @RequestParam(defaultValue = "1") long fromSequence,
+                                       @RequestParam(defaultValue = "100") int limit) {
+        try {
+            List<LedgerEntry> entries = ledgerService.getEntries(userPrincipal.getId(), fromSequence, Math.min(limit, 1000));
+            return ResponseEntity.ok(entries);
+        } catch (Exception e) {
+            log.error("Error getting ledger", e);
+            return ResponseEntity.badRequest()
+                    .body(Map.of("error", "Failed to get ledger", "message", e.getMessage()));
+        }
+    }
+
     @PostMapping("/add-balance")
     @PreAuthorize("hasRole('USER')")
     public ResponseEntity<?> addBalance(@RequestBody Map<String, Object> request,
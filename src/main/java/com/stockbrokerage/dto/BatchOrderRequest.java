@@ -0,0 +1,20 @@
+package com.stockbrokerage.dto;
+
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import lombok.AllArgsConstructor;
+
+import jakarta.validation.constraints.NotEmpty;
+import jakarta.validation.constraints.Size;
+import java.util.List;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class BatchOrderRequest {
+    
+    // Items are validated one by one in OrderService so each gets its own result
+    @NotEmpty(message = "At least one order is required")
+    @Size(max = 500, message = "At most 500 orders per batch")
+    private List<OrderRequest> orders;
+}
@@ -0,0 +1,18 @@
+package com.stockbrokerage.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@Builder
+public class BatchOrderResult {
+    
+    private int index; // position in the request's orders list
+    private boolean accepted;
+    private OrderResponse order; // set when accepted
+    private String error; // set when rejected
+}
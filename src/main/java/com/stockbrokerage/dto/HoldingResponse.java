@@ -17,6 +17,7 @@ public class HoldingResponse {
     private String symbol;
     private String companyName;
     private Long quantity;
+    private Long lockedQuantity;
     private BigDecimal averagePrice;
     private BigDecimal currentPrice;
     private BigDecimal totalCost;
@@ -9,6 +9,7 @@ import jakarta.validation.constraints.NotBlank;
 import jakarta.validation.constraints.NotNull;
 import jakarta.validation.constraints.Positive;
 import java.math.BigDecimal;
+import java.time.LocalDateTime;
 
 @Data
 @NoArgsConstructor
@@ -31,4 +32,8 @@ public class OrderRequest {
     private BigDecimal price;
     
     private BigDecimal stopPrice;
+    
+    private Order.TimeInForce timeInForce; // defaults to GTC
+    
+    private LocalDateTime expiresAt; // GTD only
 }
\ No newline at end of file
@@ -22,11 +22,16 @@ public class OrderResponse {
     private Long quantity;
     private BigDecimal price;
     private BigDecimal stopPrice;
+    private Order.TimeInForce timeInForce;
     private Order.OrderStatus status;
     private Long filledQuantity;
+    private Long remainingQuantity;
     private BigDecimal filledPrice;
     private BigDecimal orderValue;
     private BigDecimal fees;
     private LocalDateTime placedAt;
     private LocalDateTime filledAt;
+    private LocalDateTime triggeredAt;
+    private LocalDateTime expiresAt;
+    private LocalDateTime expiredAt;
 }
\ No newline at end of file
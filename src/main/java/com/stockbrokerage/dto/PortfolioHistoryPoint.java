@@ -0,0 +1,21 @@
+package com.stockbrokerage.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@Builder
+public class PortfolioHistoryPoint {
+    
+    private LocalDateTime time;
+    private BigDecimal portfolioValue;
+    private BigDecimal cash;
+    private BigDecimal totalValue;
+}
@@ -0,0 +1,38 @@
+package com.stockbrokerage.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+import java.util.List;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@Builder
+public class PortfolioValuation {
+    
+    private String userId;
+    private BigDecimal marketValue;
+    private BigDecimal costBasis;
+    private BigDecimal unrealizedPnL;
+    private BigDecimal pnLPercentage;
+    private List<PositionValuation> positions;
+    private LocalDateTime valuedAt;
+    
+    @Data
+    @NoArgsConstructor
+    @AllArgsConstructor
+    @Builder
+    public static class PositionValuation {
+        private String symbolId;
+        private Long quantity;
+        private BigDecimal price;
+        private BigDecimal marketValue;
+        private BigDecimal costBasis;
+        private BigDecimal unrealizedPnL;
+    }
+}
@@ -0,0 +1,215 @@
+package com.stockbrokerage.engine;
+
+import com.stockbrokerage.entity.Order;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Append-only journal of one shard's book mutations since its last {@link BookSnapshot}, written
+ * into a fixed-size memory-mapped file.
+ *
+ * Appends are plain memory writes, so they cost no system call and survive a process crash via
+ * the page cache. Each record's type byte is written last, after a zero terminator has been put
+ * behind it, so a record torn by a crash is never replayed. The header carries the epoch of the
+ * snapshot the journal continues from.
+ *
+ * Layout: {@code int magic, int shardCount, long epoch}, then records, then a zero byte.
+ */
+final class BookJournal implements Closeable {
+
+    private static final int MAGIC = 0x424A4E32; // "BJN2", records carry expiry deadlines
+    private static final int HEADER_SIZE = 16;
+
+    private static final byte END = 0;
+    private static final byte ADDED = 1;
+    private static final byte FILLED = 2;
+    private static final byte REMOVED = 3;
+
+    private static final byte FLAG_STOP = 1;
+    private static final byte FLAG_TRIGGERED = 2;
+
+    private static final Order.OrderSide[] SIDES = Order.OrderSide.values();
+    private static final Order.OrderType[] TYPES = Order.OrderType.values();
+
+    /** Receives journal records in the order they were appended. */
+    interface Visitor {
+        void added(String symbolId, String symbol, String orderId, String userId, Order.OrderSide side,
+                   Order.OrderType orderType, long priceTicks, long limitPriceTicks, long remainingQuantity,
+                   long filledQuantity, long expiresAtMillis, boolean stop, boolean triggered);
+
+        void filled(String symbolId, String orderId, String userId, Order.OrderSide side, Order.OrderType orderType,
+                    boolean triggered, long quantity, long priceTicks, long cumulativeQuantity, long leavesQuantity);
+
+        void removed(String symbolId, String orderId);
+    }
+
+    private final FileChannel channel;
+    private final MappedByteBuffer buffer;
+
+    BookJournal(Path file, int capacity) throws IOException {
+        this.channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        this.buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+    }
+
+    /** Whether the journal was written for this shard layout, i.e. can be replayed. */
+    boolean isValid(int shardCount) {
+        return buffer.getInt(0) == MAGIC && buffer.getInt(4) == shardCount;
+    }
+
+    long epoch() {
+        return buffer.getLong(8);
+    }
+
+    /** Empties the journal so it continues from the snapshot with the given epoch. */
+    void reset(int shardCount, long epoch) {
+        buffer.put(HEADER_SIZE, END);
+        buffer.putInt(0, MAGIC);
+        buffer.putInt(4, shardCount);
+        buffer.putLong(8, epoch);
+        buffer.position(HEADER_SIZE);
+        buffer.force();
+    }
+
+    /**
+     * Hands every complete record to the visitor and positions the journal after the last one,
+     * so later appends continue it.
+     */
+    void replay(Visitor visitor) {
+        buffer.position(HEADER_SIZE);
+        while (buffer.remaining() > 0) {
+            byte type = buffer.get();
+            if (type == END) {
+                // Step back onto the terminator so the next append overwrites it
+                buffer.position(buffer.position() - 1);
+                return;
+            }
+            switch (type) {
+                case ADDED -> {
+                    byte flags = buffer.get();
+                    visitor.added(getString(), getString(), getString(), getString(), SIDES[buffer.get()],
+                            TYPES[buffer.get()], buffer.getLong(), buffer.getLong(), buffer.getLong(), buffer.getLong(),
+                            buffer.getLong(), (flags & FLAG_STOP) != 0, (flags & FLAG_TRIGGERED) != 0);
+                }
+                case FILLED -> visitor.filled(getString(), getString(), getString(), SIDES[buffer.get()],
+                        TYPES[buffer.get()], buffer.get() != 0, buffer.getLong(), buffer.getLong(), buffer.getLong(),
+                        buffer.getLong());
+                case REMOVED -> visitor.removed(getString(), getString());
+                default -> throw new IllegalStateException("Corrupt journal record type " + type
+                        + " at offset " + (buffer.position() - 1));
+            }
+        }
+    }
+
+    /** @return false if the journal is full */
+    boolean added(String symbolId, String symbol, RestingOrder order, boolean stop, boolean triggered) {
+        int size = 2 + sizeOf(symbolId) + sizeOf(symbol) + sizeOf(order.getOrderId()) + sizeOf(order.getUserId())
+                + 2 + 5 * Long.BYTES;
+        int start = begin(size);
+        if (start < 0) {
+            return false;
+        }
+        buffer.put((byte) ((stop ? FLAG_STOP : 0) | (triggered ? FLAG_TRIGGERED : 0)));
+        putString(symbolId);
+        putString(symbol);
+        putString(order.getOrderId());
+        putString(order.getUserId());
+        buffer.put((byte) order.getSide().ordinal());
+        buffer.put((byte) order.getOrderType().ordinal());
+        buffer.putLong(order.getPriceTicks());
+        buffer.putLong(order.getLimitPriceTicks());
+        buffer.putLong(order.getRemainingQuantity());
+        buffer.putLong(order.getFilledQuantity());
+        buffer.putLong(order.getExpiresAtMillis());
+        commit(start, ADDED);
+        return true;
+    }
+
+    /** @return false if the journal is full */
+    boolean filled(String symbolId, String orderId, String userId, Order.OrderSide side, Order.OrderType orderType,
+                   boolean triggered, long quantity, long priceTicks, long cumulativeQuantity, long leavesQuantity) {
+        int size = 1 + sizeOf(symbolId) + sizeOf(orderId) + sizeOf(userId) + 3 + 4 * Long.BYTES;
+        int start = begin(size);
+        if (start < 0) {
+            return false;
+        }
+        putString(symbolId);
+        putString(orderId);
+        putString(userId);
+        buffer.put((byte) side.ordinal());
+        buffer.put((byte) orderType.ordinal());
+        buffer.put((byte) (triggered ? 1 : 0));
+        buffer.putLong(quantity);
+        buffer.putLong(priceTicks);
+        buffer.putLong(cumulativeQuantity);
+        buffer.putLong(leavesQuantity);
+        commit(start, FILLED);
+        return true;
+    }
+
+    /** @return false if the journal is full */
+    boolean removed(String symbolId, String orderId) {
+        int start = begin(1 + sizeOf(symbolId) + sizeOf(orderId));
+        if (start < 0) {
+            return false;
+        }
+        putString(symbolId);
+        putString(orderId);
+        commit(start, REMOVED);
+        return true;
+    }
+
+    @Override
+    public void close() throws IOException {
+        buffer.force();
+        channel.close();
+    }
+
+    private int begin(int size) {
+        int start = buffer.position();
+        // Room for the record plus the terminator behind it
+        if (start + size + 1 > buffer.capacity()) {
+            return -1;
+        }
+        buffer.put(start + size, END);
+        buffer.position(start + 1);
+        return start;
+    }
+
+    private void commit(int start, byte type) {
+        buffer.put(start, type);
+    }
+
+    // Strings are written as UTF-16 chars rather than encoded, so appends do not allocate
+
+    private static int sizeOf(String value) {
+        return Short.BYTES + (value == null ? 0 : value.length() * Character.BYTES);
+    }
+
+    private void putString(String value) {
+        if (value == null) {
+            buffer.putShort((short) -1);
+            return;
+        }
+        buffer.putShort((short) value.length());
+        for (int i = 0; i < value.length(); i++) {
+            buffer.putChar(value.charAt(i));
+        }
+    }
+
+    private String getString() {
+        short length = buffer.getShort();
+        if (length < 0) {
+            return null;
+        }
+        char[] chars = new char[length];
+        for (int i = 0; i < length; i++) {
+            chars[i] = buffer.getChar();
+        }
+        return new String(chars);
+    }
+}
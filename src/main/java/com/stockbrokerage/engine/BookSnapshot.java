@@ -0,0 +1,135 @@
+package com.stockbrokerage.engine;
+
+import com.stockbrokerage.entity.Order;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.function.ObjLongConsumer;
+
+/**
+ * Binary point-in-time image of every book and stop index on one shard, tagged with an epoch that
+ * the shard's {@link BookJournal} continues from.
+ *
+ * Orders are written in priority order, so re-adding them in file order rebuilds the same queues.
+ * A snapshot is written to a temporary file, synced and then atomically moved into place, so the
+ * previous snapshot stays intact until the new one is complete.
+ */
+final class BookSnapshot {
+
+    private static final int MAGIC = 0x42534E50; // "BSNP"
+    private static final int VERSION = 2;
+
+    private static final Order.OrderSide[] SIDES = Order.OrderSide.values();
+    private static final Order.OrderType[] TYPES = Order.OrderType.values();
+
+    private BookSnapshot() {
+    }
+
+    /** Streams one snapshot to a temporary file; {@link #commit()} moves it into place. */
+    static final class Writer implements Closeable {
+
+        private final Path file;
+        private final Path tempFile;
+        private final FileOutputStream fileOut;
+        private final DataOutputStream out;
+
+        private Writer(Path file, int shardCount, long epoch, int symbolCount) throws IOException {
+            this.file = file;
+            this.tempFile = file.resolveSibling(file.getFileName() + ".tmp");
+            this.fileOut = new FileOutputStream(tempFile.toFile());
+            this.out = new DataOutputStream(new BufferedOutputStream(fileOut, 1 << 16));
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(shardCount);
+            out.writeLong(epoch);
+            out.writeInt(symbolCount);
+        }
+
+        void symbol(String symbolId, String symbol, long lastPriceTicks, int bookOrders, int stopOrders) throws IOException {
+            out.writeUTF(symbolId);
+            out.writeBoolean(symbol != null);
+            if (symbol != null) {
+                out.writeUTF(symbol);
+            }
+            out.writeLong(lastPriceTicks);
+            out.writeInt(bookOrders);
+            out.writeInt(stopOrders);
+        }
+
+        /** Writes one order of the current symbol: its book orders first, then its stops. */
+        void order(RestingOrder order) {
+            try {
+                out.writeUTF(order.getOrderId());
+                out.writeUTF(order.getUserId());
+                out.writeByte(order.getSide().ordinal());
+                out.writeByte(order.getOrderType().ordinal());
+                out.writeLong(order.getPriceTicks());
+                out.writeLong(order.getLimitPriceTicks());
+                out.writeLong(order.getRemainingQuantity());
+                out.writeLong(order.getFilledQuantity());
+                out.writeLong(order.getExpiresAtMillis());
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        void commit() throws IOException {
+            out.flush();
+            fileOut.getFD().sync();
+            out.close();
+            Files.move(tempFile, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        }
+
+        @Override
+        public void close() throws IOException {
+            out.close();
+            Files.deleteIfExists(tempFile);
+        }
+    }
+
+    static Writer create(Path file, int shardCount, long epoch, int symbolCount) throws IOException {
+        return new Writer(file, shardCount, epoch, symbolCount);
+    }
+
+    /**
+     * Loads a snapshot, handing every order to {@code orders} (with {@code triggered} false) and
+     * every symbol's last traded price to {@code lastPrices}.
+     *
+     * @return the snapshot's epoch, or -1 if there is no snapshot for this shard layout
+     */
+    static long read(Path file, int shardCount, BookJournal.Visitor orders, ObjLongConsumer<String> lastPrices)
+            throws IOException {
+        if (!Files.exists(file)) {
+            return -1;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file), 1 << 16))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION || in.readInt() != shardCount) {
+                return -1;
+            }
+            long epoch = in.readLong();
+            int symbolCount = in.readInt();
+            for (int s = 0; s < symbolCount; s++) {
+                String symbolId = in.readUTF();
+                String symbol = in.readBoolean() ? in.readUTF() : null;
+                lastPrices.accept(symbolId, in.readLong());
+                int bookOrders = in.readInt();
+                int stopOrders = in.readInt();
+                for (int i = 0; i < bookOrders + stopOrders; i++) {
+                    orders.added(symbolId, symbol, in.readUTF(), in.readUTF(), SIDES[in.readByte()],
+                            TYPES[in.readByte()], in.readLong(), in.readLong(), in.readLong(), in.readLong(),
+                            in.readLong(), i >= bookOrders, false);
+                }
+            }
+            return epoch;
+        }
+    }
+}
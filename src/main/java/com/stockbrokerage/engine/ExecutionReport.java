@@ -0,0 +1,49 @@
+package com.stockbrokerage.engine;
+
+import com.stockbrokerage.entity.Order;
+import lombok.Getter;
+
+/**
+ * Reusable output slot of a {@link SequencerShard}: what the book did with an order, handed to
+ * the persistence and publishing stage.
+ *
+ * A FILLED report is one fill: {@code quantity} at {@code priceTicks}, with the order's
+ * cumulative filled and remaining quantity after it. An order may receive several.
+ */
+@Getter
+public class ExecutionReport {
+
+    public enum Type {
+        FILLED, RESTED, CANCELLED, EXPIRED, REJECTED
+    }
+
+    private Type type;
+    private String orderId;
+    private String userId;
+    private String symbolId;
+    private String symbol;
+    private Order.OrderSide side;
+    private Order.OrderType orderType;
+    private boolean triggered;
+    private long quantity;
+    private long priceTicks;
+    private long cumulativeQuantity;
+    private long leavesQuantity;
+
+    void set(Type type, String orderId, String userId, String symbolId, String symbol, Order.OrderSide side,
+             Order.OrderType orderType, boolean triggered, long quantity, long priceTicks,
+             long cumulativeQuantity, long leavesQuantity) {
+        this.type = type;
+        this.orderId = orderId;
+        this.userId = userId;
+        this.symbolId = symbolId;
+        this.symbol = symbol;
+        this.side = side;
+        this.orderType = orderType;
+        this.triggered = triggered;
+        this.quantity = quantity;
+        this.priceTicks = priceTicks;
+        this.cumulativeQuantity = cumulativeQuantity;
+        this.leavesQuantity = leavesQuantity;
+    }
+}
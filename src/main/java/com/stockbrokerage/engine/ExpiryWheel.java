@@ -0,0 +1,133 @@
+package com.stockbrokerage.engine;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Hierarchical timing wheel of resting-order expiry deadlines.
+ *
+ * Four levels of 256 slots each: level 0 has one slot per tick, and each level above covers 256
+ * times the span of the one below, so with one-second ticks the wheel reaches about 136 years.
+ * Orders are linked into their slot through fields on {@link RestingOrder}, so scheduling and
+ * unscheduling are O(1) and allocation-free. When a higher-level slot comes due, its orders
+ * cascade into the lower levels. Each order moves down at most three times before it expires.
+ * Deadlines are rounded up to the next tick, so nothing fires early.
+ * Not thread-safe; owned by a {@link SequencerShard}.
+ */
+class ExpiryWheel {
+
+    private static final int BITS = 8;
+    private static final int SLOTS = 1 << BITS;
+    private static final int MASK = SLOTS - 1;
+    private static final int LEVELS = 4;
+
+    private final long tickMillis;
+    private final RestingOrder[][] slots = new RestingOrder[LEVELS][SLOTS];
+    private long currentTick;
+    private int size;
+
+    ExpiryWheel(long tickMillis, long nowMillis) {
+        this.tickMillis = tickMillis;
+        this.currentTick = nowMillis / tickMillis;
+    }
+
+    int size() {
+        return size;
+    }
+
+    /**
+     * Schedules an order to expire at {@link RestingOrder#getExpiresAtMillis()}; one whose
+     * deadline has already passed expires on the next tick.
+     */
+    void schedule(RestingOrder order) {
+        order.expiryTick = Math.max(-Math.floorDiv(-order.getExpiresAtMillis(), tickMillis), currentTick + 1);
+        insert(order);
+        size++;
+    }
+
+    /** Forgets every scheduled order without touching them; they must be discarded as well. */
+    void clear() {
+        for (RestingOrder[] level : slots) {
+            Arrays.fill(level, null);
+        }
+        size = 0;
+    }
+
+    void unschedule(RestingOrder order) {
+        if (order.timerLevel < 0) {
+            return;
+        }
+        unlink(order);
+        size--;
+    }
+
+    /**
+     * Moves the wheel up to {@code nowMillis} and appends every order whose deadline has been
+     * reached to {@code out}, unscheduled, in deadline order.
+     */
+    void advance(long nowMillis, List<RestingOrder> out) {
+        long targetTick = nowMillis / tickMillis;
+        while (currentTick < targetTick) {
+            currentTick++;
+            // Cascade from the top down, so orders dropping several levels land before their slot is read
+            for (int level = LEVELS - 1; level > 0; level--) {
+                if ((currentTick & ((1L << (BITS * level)) - 1)) == 0) {
+                    cascade(level, (int) (currentTick >>> (BITS * level)) & MASK);
+                }
+            }
+            int slot = (int) currentTick & MASK;
+            RestingOrder order;
+            while ((order = slots[0][slot]) != null) {
+                unlink(order);
+                size--;
+                out.add(order);
+            }
+        }
+    }
+
+    private void cascade(int level, int slot) {
+        RestingOrder order = slots[level][slot];
+        slots[level][slot] = null;
+        while (order != null) {
+            RestingOrder next = order.timerNext;
+            order.timerPrev = null;
+            order.timerNext = null;
+            order.timerLevel = -1;
+            insert(order);
+            order = next;
+        }
+    }
+
+    private void insert(RestingOrder order) {
+        long delta = order.expiryTick - currentTick;
+        int level = 0;
+        // The top level also takes anything further out; it just cascades back into itself until due
+        while (level < LEVELS - 1 && delta >= 1L << (BITS * (level + 1))) {
+            level++;
+        }
+        int slot = (int) (order.expiryTick >>> (BITS * level)) & MASK;
+        RestingOrder head = slots[level][slot];
+        order.timerLevel = level;
+        order.timerSlot = slot;
+        order.timerPrev = null;
+        order.timerNext = head;
+        if (head != null) {
+            head.timerPrev = order;
+        }
+        slots[level][slot] = order;
+    }
+
+    private void unlink(RestingOrder order) {
+        if (order.timerPrev == null) {
+            slots[order.timerLevel][order.timerSlot] = order.timerNext;
+        } else {
+            order.timerPrev.timerNext = order.timerNext;
+        }
+        if (order.timerNext != null) {
+            order.timerNext.timerPrev = order.timerPrev;
+        }
+        order.timerPrev = null;
+        order.timerNext = null;
+        order.timerLevel = -1;
+    }
+}
@@ -0,0 +1,137 @@
+package com.stockbrokerage.engine;
+
+import com.stockbrokerage.entity.Order;
+import lombok.Getter;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.Consumer;
+
+/**
+ * Price-time priority book of resting orders for a single symbol: LIMIT orders at their limit,
+ * and the unfilled remainder of MARKET orders at {@link #MARKET_BID}/{@link #MARKET_ASK}, which
+ * are marketable at any price and so sit ahead of every limit.
+ *
+ * Each side is a {@link PriceLadder} with the best price at the end, so reading and removing
+ * the top of book is O(1). Orders are indexed by id for O(1) cancel. Not thread-safe; callers
+ * own the book from a single thread or lock it.
+ */
+public class OrderBook {
+
+    public static final long MARKET_BID = Long.MAX_VALUE;
+    public static final long MARKET_ASK = 0;
+
+    /** Receives each fill handed out by {@link #fillMarketable}. */
+    public interface FillHandler {
+        /**
+         * {@code complete} orders have already left the book and may be recycled by the handler;
+         * otherwise the order keeps its place with its remaining quantity reduced.
+         */
+        void onFill(RestingOrder order, long quantity, boolean complete);
+    }
+
+    @Getter
+    private final String symbolId;
+    private final PriceLadder bids = new PriceLadder(1);
+    private final PriceLadder asks = new PriceLadder(-1);
+    private final Map<String, RestingOrder> ordersById = new HashMap<>();
+
+    public OrderBook(String symbolId) {
+        this.symbolId = symbolId;
+    }
+
+    public boolean add(RestingOrder order) {
+        if (order.getRemainingQuantity() <= 0 || ordersById.putIfAbsent(order.getOrderId(), order) != null) {
+            return false;
+        }
+        side(order.getSide()).add(order);
+        return true;
+    }
+
+    public RestingOrder cancel(String orderId) {
+        RestingOrder order = ordersById.remove(orderId);
+        if (order != null) {
+            side(order.getSide()).remove(order);
+        }
+        return order;
+    }
+
+    /**
+     * Fills part or all of one resting order, e.g. when replaying a journal.
+     *
+     * @return the order if it was completely filled and so left the book, otherwise null
+     */
+    public RestingOrder fill(String orderId, long quantity) {
+        RestingOrder order = ordersById.get(orderId);
+        if (order == null) {
+            return null;
+        }
+        if (quantity < order.getRemainingQuantity()) {
+            order.level.reduce(order, quantity);
+            return null;
+        }
+        cancel(orderId);
+        order.reduce(order.getRemainingQuantity());
+        return order;
+    }
+
+    public boolean contains(String orderId) {
+        return ordersById.containsKey(orderId);
+    }
+
+    public int size() {
+        return ordersById.size();
+    }
+
+    public Collection<RestingOrder> orders() {
+        return ordersById.values();
+    }
+
+    /**
+     * Visits bids then asks in priority order, so re-adding them in this order rebuilds the same queues.
+     */
+    public void forEachInPriority(Consumer<RestingOrder> action) {
+        bids.forEach(action);
+        asks.forEach(action);
+    }
+
+    public PriceLevel bestBid() {
+        return bids.best();
+    }
+
+    public PriceLevel bestAsk() {
+        return asks.best();
+    }
+
+    /**
+     * Fills orders on one side that are marketable at the given price, best level first and FIFO
+     * within a level, until {@code liquidity} is used up, and returns how much was filled. The
+     * order that exhausts the liquidity is partially filled and keeps its time priority.
+     */
+    public long fillMarketable(Order.OrderSide side, long marketPriceTicks, long liquidity, FillHandler handler) {
+        PriceLadder ladder = side(side);
+        long filled = 0;
+        PriceLevel level;
+        while (filled < liquidity && (level = ladder.best()) != null
+                && ladder.isReached(level.getPriceTicks(), marketPriceTicks)) {
+            RestingOrder order = level.getHead();
+            long quantity = Math.min(order.getRemainingQuantity(), liquidity - filled);
+            filled += quantity;
+            if (quantity == order.getRemainingQuantity()) {
+                ladder.remove(order);
+                ordersById.remove(order.getOrderId());
+                order.reduce(quantity);
+                handler.onFill(order, quantity, true);
+            } else {
+                level.reduce(order, quantity);
+                handler.onFill(order, quantity, false);
+            }
+        }
+        return filled;
+    }
+
+    private PriceLadder side(Order.OrderSide side) {
+        return side == Order.OrderSide.BUY ? bids : asks;
+    }
+}
@@ -0,0 +1,53 @@
+package com.stockbrokerage.engine;
+
+import com.stockbrokerage.entity.Order;
+import lombok.Getter;
+import lombok.Setter;
+
+/**
+ * Reusable input slot of a {@link SequencerShard}'s ring. Prices are in {@link Prices} ticks,
+ * 0 meaning "not set". For MARKET_TICK, {@code quantity} is the tick's traded volume (0 if unknown);
+ * for RESTORE_ORDER, {@code quantity} is what is left and {@code filledQuantity} what already filled.
+ * {@code symbolOrdinal} is the symbol's {@link com.stockbrokerage.symbols.SymbolRegistry} ordinal,
+ * resolved once by whoever submits the command, so the shard finds the symbol's book by index.
+ */
+@Getter
+@Setter
+public class OrderCommand {
+
+    public enum Type {
+        NEW_ORDER, RESTORE_ORDER, CANCEL_ORDER, MARKET_TICK, SNAPSHOT
+    }
+
+    private Type type;
+    private String orderId;
+    private String userId;
+    private String symbolId;
+    private int symbolOrdinal = -1;
+    private String symbol;
+    private Order.OrderType orderType;
+    private Order.OrderSide side;
+    private long quantity;
+    private long filledQuantity;
+    private long limitPriceTicks;
+    private long stopPriceTicks;
+    private long marketPriceTicks;
+    private long expiresAtMillis;
+
+    void clear() {
+        type = null;
+        orderId = null;
+        userId = null;
+        symbolId = null;
+        symbolOrdinal = -1;
+        symbol = null;
+        orderType = null;
+        side = null;
+        quantity = 0;
+        filledQuantity = 0;
+        limitPriceTicks = 0;
+        stopPriceTicks = 0;
+        marketPriceTicks = 0;
+        expiresAtMillis = 0;
+    }
+}
@@ -0,0 +1,202 @@
+package com.stockbrokerage.engine;
+
+import com.stockbrokerage.entity.Order;
+import com.stockbrokerage.events.OrderPlacedEvent;
+import com.stockbrokerage.repository.OrderRepository;
+import com.stockbrokerage.service.OrderExecutionService;
+import com.stockbrokerage.symbols.SymbolRegistry;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.math.BigDecimal;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.List;
+
+/**
+ * Entry point of the matching pipeline: routes every order, cancel and market tick by symbolId
+ * to the one {@link SequencerShard} that owns that symbol.
+ *
+ * On startup each shard rebuilds its books from its own snapshot and journal; only shards
+ * without usable on-disk state are restored from the open orders in the database.
+ */
+@Component
+@RequiredArgsConstructor
+@Slf4j
+public class OrderSequencer {
+
+    private final OrderRepository orderRepository;
+    private final OrderExecutionService orderExecutionService;
+    private final SymbolRegistry symbolRegistry;
+
+    @Value("${app.matching.shards:4}")
+    private int shardCount;
+
+    @Value("${app.matching.ring-size:16384}")
+    private int ringSize;
+
+    @Value("${app.matching.journal.dir:}")
+    private String journalDir;
+
+    @Value("${app.matching.journal.size-mb:64}")
+    private int journalSizeMb;
+
+    private SequencerShard[] shards;
+
+    @PostConstruct
+    public void start() {
+        Path dataDir = journalDir.isBlank() ? null : Path.of(journalDir);
+        shards = new SequencerShard[shardCount];
+        boolean[] recovered = new boolean[shardCount];
+        boolean restore = false;
+        for (int i = 0; i < shardCount; i++) {
+            shards[i] = new SequencerShard(i, shardCount, ringSize, orderExecutionService.newReportHandler(),
+                    symbolRegistry::ordinal, dataDir, journalSizeMb << 20);
+            recovered[i] = shards[i].start();
+            restore |= !recovered[i];
+        }
+        log.info("Started order sequencer with {} shards, ring size {}, book journal {}", shardCount, ringSize,
+                dataDir != null ? dataDir.toAbsolutePath() : "disabled");
+        if (restore) {
+            restoreRestingOrders(recovered);
+        }
+        if (dataDir != null) {
+            // Fold whatever the journals replayed (or the restore added) into fresh snapshots
+            snapshot();
+        }
+    }
+
+    @PreDestroy
+    public void stop() {
+        for (SequencerShard shard : shards) {
+            shard.stop();
+        }
+    }
+
+    private void restoreRestingOrders(boolean[] recovered) {
+        try {
+            List<Order> openOrders = orderRepository.findByStatusIn(
+                    List.of(Order.OrderStatus.PENDING, Order.OrderStatus.PARTIALLY_FILLED));
+            // MARKET orders are restored too: they may be resting with a partially filled remainder,
+            // and if their event is still in Kafka the shard drops it as a duplicate
+            int restored = 0;
+            for (Order order : openOrders) {
+                if (!recovered[shardIndex(order.getSymbolId())]) {
+                    restore(order);
+                    restored++;
+                }
+            }
+            log.info("Restored {} open orders into the order books from the database", restored);
+        } catch (Exception e) {
+            log.error("Error restoring resting orders into the order books", e);
+        }
+    }
+
+    /**
+     * Asks every shard to snapshot its books, which also empties its journal.
+     */
+    @Scheduled(fixedDelayString = "${app.matching.snapshot-interval-ms:60000}",
+            initialDelayString = "${app.matching.snapshot-interval-ms:60000}")
+    public void snapshot() {
+        if (journalDir.isBlank()) {
+            return;
+        }
+        for (SequencerShard shard : shards) {
+            RingBuffer<OrderCommand> ring = shard.getCommands();
+            long sequence = ring.next();
+            ring.get(sequence).setType(OrderCommand.Type.SNAPSHOT);
+            ring.publish(sequence);
+        }
+    }
+
+    /** @param ordinal the symbol's {@link SymbolRegistry} ordinal */
+    public void submit(OrderPlacedEvent event, int ordinal, String symbol, BigDecimal marketPrice) {
+        RingBuffer<OrderCommand> ring = shardFor(event.getSymbolId()).getCommands();
+        long sequence = ring.next();
+        OrderCommand command = ring.get(sequence);
+        command.setType(OrderCommand.Type.NEW_ORDER);
+        command.setOrderId(event.getOrderId());
+        command.setUserId(event.getUserId());
+        command.setSymbolId(event.getSymbolId());
+        command.setSymbolOrdinal(ordinal);
+        command.setSymbol(symbol);
+        command.setOrderType(event.getOrderType());
+        command.setSide(event.getSide());
+        command.setQuantity(event.getQuantity());
+        command.setLimitPriceTicks(event.getPrice() != null ? Prices.toTicks(event.getPrice()) : 0);
+        command.setStopPriceTicks(event.getStopPrice() != null ? Prices.toTicks(event.getStopPrice()) : 0);
+        command.setMarketPriceTicks(marketPrice != null ? Prices.toTicks(marketPrice) : 0);
+        command.setExpiresAtMillis(toEpochMillis(event.getExpiresAt()));
+        ring.publish(sequence);
+    }
+
+    public void restore(Order order) {
+        int ordinal = symbolRegistry.ordinal(order.getSymbolId());
+        if (ordinal < 0) {
+            log.warn("Not restoring order {} of unknown symbol {}", order.getId(), order.getSymbolId());
+            return;
+        }
+        RingBuffer<OrderCommand> ring = shardFor(order.getSymbolId()).getCommands();
+        long sequence = ring.next();
+        OrderCommand command = ring.get(sequence);
+        command.setType(OrderCommand.Type.RESTORE_ORDER);
+        command.setOrderId(order.getId());
+        command.setUserId(order.getUserId());
+        command.setSymbolId(order.getSymbolId());
+        command.setSymbolOrdinal(ordinal);
+        command.setOrderType(order.getOrderType());
+        command.setSide(order.getSide());
+        long filled = order.getFilledQuantity() != null ? order.getFilledQuantity() : 0L;
+        command.setQuantity(order.getQuantity() - filled);
+        command.setFilledQuantity(filled);
+        command.setLimitPriceTicks(order.getPrice() != null ? Prices.toTicks(order.getPrice()) : 0);
+        command.setStopPriceTicks(order.getStopPrice() != null ? Prices.toTicks(order.getStopPrice()) : 0);
+        command.setExpiresAtMillis(toEpochMillis(order.getExpiresAt()));
+        ring.publish(sequence);
+    }
+
+    public void cancel(String symbolId, int ordinal, String orderId) {
+        RingBuffer<OrderCommand> ring = shardFor(symbolId).getCommands();
+        long sequence = ring.next();
+        OrderCommand command = ring.get(sequence);
+        command.setType(OrderCommand.Type.CANCEL_ORDER);
+        command.setOrderId(orderId);
+        command.setSymbolId(symbolId);
+        command.setSymbolOrdinal(ordinal);
+        ring.publish(sequence);
+    }
+
+    public void onMarketTick(String symbolId, int ordinal, String symbol, BigDecimal price, Long volume) {
+        if (price == null) {
+            return;
+        }
+        RingBuffer<OrderCommand> ring = shardFor(symbolId).getCommands();
+        long sequence = ring.next();
+        OrderCommand command = ring.get(sequence);
+        command.setType(OrderCommand.Type.MARKET_TICK);
+        command.setSymbolId(symbolId);
+        command.setSymbolOrdinal(ordinal);
+        command.setSymbol(symbol);
+        command.setMarketPriceTicks(Prices.toTicks(price));
+        command.setQuantity(volume != null ? volume : 0);
+        ring.publish(sequence);
+    }
+
+    private SequencerShard shardFor(String symbolId) {
+        return shards[shardIndex(symbolId)];
+    }
+
+    private int shardIndex(String symbolId) {
+        return Math.floorMod(symbolId.hashCode(), shards.length);
+    }
+
+    private static long toEpochMillis(LocalDateTime time) {
+        return time != null ? time.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli() : 0;
+    }
+}
@@ -0,0 +1,116 @@
+package com.stockbrokerage.engine;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.function.Consumer;
+
+/**
+ * Price levels kept in a sorted array with the level that is reached first at the end.
+ *
+ * Keys are {@code sign * price} in ascending order. With sign +1 the highest price sits at the
+ * end and a level is reached once the market trades at or below it (resting bids, sell stops);
+ * with sign -1 the lowest price sits at the end and is reached at or above it (resting asks,
+ * buy stops). Reading and removing the end is O(1); adding a level is a binary search plus a shift.
+ * Emptied levels are kept on a small spare list and reused, so steady-state churn does not allocate.
+ */
+class PriceLadder {
+
+    private static final int INITIAL_LEVELS = 16;
+    private static final int MAX_SPARE_LEVELS = 64;
+
+    private final int sign;
+    private long[] keys = new long[INITIAL_LEVELS];
+    private PriceLevel[] levels = new PriceLevel[INITIAL_LEVELS];
+    private int size;
+    private final PriceLevel[] spareLevels = new PriceLevel[MAX_SPARE_LEVELS];
+    private int spareCount;
+
+    PriceLadder(int sign) {
+        this.sign = sign;
+    }
+
+    PriceLevel best() {
+        return size == 0 ? null : levels[size - 1];
+    }
+
+    boolean isReached(long priceTicks, long marketPriceTicks) {
+        return sign * priceTicks >= sign * marketPriceTicks;
+    }
+
+    void add(RestingOrder order) {
+        long key = sign * order.getPriceTicks();
+        int index = Arrays.binarySearch(keys, 0, size, key);
+        PriceLevel level;
+        if (index >= 0) {
+            level = levels[index];
+        } else {
+            level = (spareCount > 0 ? spareLevels[--spareCount] : new PriceLevel()).reset(order.getPriceTicks());
+            insertAt(-index - 1, key, level);
+        }
+        level.append(order);
+    }
+
+    void remove(RestingOrder order) {
+        PriceLevel level = order.level;
+        level.remove(order);
+        if (level.isEmpty()) {
+            int index = Arrays.binarySearch(keys, 0, size, sign * level.getPriceTicks());
+            if (index >= 0) {
+                removeAt(index);
+            }
+        }
+    }
+
+    /**
+     * Removes every order on a level reached at the given price, best level first and FIFO within
+     * a level, and appends it to {@code out}.
+     */
+    void drainReached(long marketPriceTicks, Collection<RestingOrder> out) {
+        PriceLevel level;
+        while ((level = best()) != null && isReached(level.getPriceTicks(), marketPriceTicks)) {
+            RestingOrder order;
+            while ((order = level.getHead()) != null) {
+                level.remove(order);
+                out.add(order);
+            }
+            removeAt(size - 1);
+        }
+    }
+
+    /**
+     * Visits every order, best level first and FIFO within a level.
+     */
+    void forEach(Consumer<RestingOrder> action) {
+        for (int i = size - 1; i >= 0; i--) {
+            for (RestingOrder order = levels[i].getHead(); order != null; order = order.next) {
+                action.accept(order);
+            }
+        }
+    }
+
+    private void insertAt(int index, long key, PriceLevel level) {
+        if (size == keys.length) {
+            keys = Arrays.copyOf(keys, size * 2);
+            levels = Arrays.copyOf(levels, size * 2);
+        }
+        System.arraycopy(keys, index, keys, index + 1, size - index);
+        System.arraycopy(levels, index, levels, index + 1, size - index);
+        keys[index] = key;
+        levels[index] = level;
+        size++;
+    }
+
+    private void removeAt(int index) {
+        PriceLevel removed = levels[index];
+        int tail = size - index - 1;
+        if (tail > 0) {
+            System.arraycopy(keys, index + 1, keys, index, tail);
+            System.arraycopy(levels, index + 1, levels, index, tail);
+        }
+        size--;
+        if (spareCount < MAX_SPARE_LEVELS) {
+            spareLevels[spareCount++] = removed;
+        }
+        levels[size] = null;
+    }
+}
@@ -0,0 +1,66 @@
+package com.stockbrokerage.engine;
+
+import lombok.Getter;
+
+/**
+ * All resting orders at one price, kept in arrival (time priority) order.
+ */
+@Getter
+public class PriceLevel {
+
+    private long priceTicks;
+    private RestingOrder head;
+    private RestingOrder tail;
+    private long totalQuantity;
+    private int orderCount;
+
+    PriceLevel reset(long priceTicks) {
+        this.priceTicks = priceTicks;
+        this.head = null;
+        this.tail = null;
+        this.totalQuantity = 0;
+        this.orderCount = 0;
+        return this;
+    }
+
+    void append(RestingOrder order) {
+        order.level = this;
+        order.prev = tail;
+        order.next = null;
+        if (tail == null) {
+            head = order;
+        } else {
+            tail.next = order;
+        }
+        tail = order;
+        totalQuantity += order.getRemainingQuantity();
+        orderCount++;
+    }
+
+    void remove(RestingOrder order) {
+        if (order.prev == null) {
+            head = order.next;
+        } else {
+            order.prev.next = order.next;
+        }
+        if (order.next == null) {
+            tail = order.prev;
+        } else {
+            order.next.prev = order.prev;
+        }
+        totalQuantity -= order.getRemainingQuantity();
+        orderCount--;
+        order.level = null;
+        order.prev = null;
+        order.next = null;
+    }
+
+    void reduce(RestingOrder order, long quantity) {
+        order.reduce(quantity);
+        totalQuantity -= quantity;
+    }
+
+    boolean isEmpty() {
+        return head == null;
+    }
+}
@@ -0,0 +1,23 @@
+package com.stockbrokerage.engine;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+
+/**
+ * Fixed-point price conversion used by the in-memory engine (4 decimal places).
+ */
+public final class Prices {
+
+    public static final int SCALE = 4;
+
+    private Prices() {
+    }
+
+    public static long toTicks(BigDecimal price) {
+        return price.setScale(SCALE, RoundingMode.HALF_UP).unscaledValue().longValueExact();
+    }
+
+    public static BigDecimal fromTicks(long ticks) {
+        return BigDecimal.valueOf(ticks, SCALE);
+    }
+}
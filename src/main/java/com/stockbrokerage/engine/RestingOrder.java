@@ -0,0 +1,66 @@
+package com.stockbrokerage.engine;
+
+import com.stockbrokerage.entity.Order;
+import lombok.Getter;
+
+/**
+ * A LIMIT order resting in an {@link OrderBook}, or an untriggered stop in a {@link StopTriggerIndex}
+ * (priced at its stop, with its limit in {@code limitPriceTicks} for STOP_LIMIT). Doubles as the node
+ * of its price level's FIFO queue and of its {@link ExpiryWheel} slot, and is recycled by its owning
+ * shard once it leaves the book.
+ */
+@Getter
+public class RestingOrder {
+
+    private String orderId;
+    private String userId;
+    private String symbolId;
+    private Order.OrderSide side;
+    private Order.OrderType orderType;
+    private long priceTicks;
+    private long limitPriceTicks;
+    private long remainingQuantity;
+    private long filledQuantity;
+    private long expiresAtMillis; // 0 = never
+
+    // Intrusive FIFO links, owned by PriceLevel (next doubles as the free-list link)
+    PriceLevel level;
+    RestingOrder prev;
+    RestingOrder next;
+
+    // Expiry wheel links, owned by ExpiryWheel (timerLevel -1 = not scheduled)
+    long expiryTick;
+    int timerLevel = -1;
+    int timerSlot;
+    RestingOrder timerPrev;
+    RestingOrder timerNext;
+
+    RestingOrder init(String orderId, String userId, String symbolId, Order.OrderSide side, Order.OrderType orderType,
+                      long priceTicks, long limitPriceTicks, long remainingQuantity, long filledQuantity,
+                      long expiresAtMillis) {
+        this.orderId = orderId;
+        this.userId = userId;
+        this.symbolId = symbolId;
+        this.side = side;
+        this.orderType = orderType;
+        this.priceTicks = priceTicks;
+        this.limitPriceTicks = limitPriceTicks;
+        this.remainingQuantity = remainingQuantity;
+        this.filledQuantity = filledQuantity;
+        this.expiresAtMillis = expiresAtMillis;
+        return this;
+    }
+
+    void reduce(long quantity) {
+        remainingQuantity -= quantity;
+        filledQuantity += quantity;
+    }
+
+    void release() {
+        orderId = null;
+        userId = null;
+        symbolId = null;
+        level = null;
+        prev = null;
+    }
+}
@@ -0,0 +1,683 @@
+package com.stockbrokerage.engine;
+
+import com.stockbrokerage.entity.Order;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.BooleanSupplier;
+import java.util.function.ToIntFunction;
+
+/**
+ * Single-writer owner of the books for a subset of symbols.
+ *
+ * Commands arrive through a multi-producer {@link RingBuffer} and are applied by this shard's one
+ * thread, so books and trigger indexes are mutated without locks and in a deterministic order.
+ * Resting-order nodes and price levels are recycled, and command/report slots are preallocated,
+ * so the matching path does not allocate in steady state. What the book did is written to a
+ * second ring and drained by a separate thread that persists and publishes it.
+ *
+ * Symbols are held in an array indexed by their {@link com.stockbrokerage.symbols.SymbolRegistry}
+ * ordinal, which commands carry, so finding a symbol's book is an array load. The journal and
+ * snapshot name symbols by id, as ordinals are only valid within one process; recovery and
+ * expiry, which start from an id, resolve it through the registry.
+ *
+ * Each market tick's traded volume caps how much can fill against it on each side, so large
+ * orders fill in several pieces and rest with the remainder until later ticks.
+ *
+ * Orders with a deadline (DAY, GTD and the GTC cut-off) are also scheduled on an
+ * {@link ExpiryWheel} that the sequencer thread advances between batches. Expired orders leave
+ * the book like a cancel and are reported as EXPIRED.
+ *
+ * When given a data directory, every book mutation is appended to a memory-mapped
+ * {@link BookJournal} and the books are periodically written to a {@link BookSnapshot}, so a
+ * restart rebuilds them from the snapshot plus the journal tail rather than from the database.
+ */
+@Slf4j
+public class SequencerShard {
+
+    private static final int MAX_BATCH = 256;
+    private static final long EXPIRY_TICK_MILLIS = 1000;
+
+    @Getter
+    private final int id;
+    @Getter
+    private final RingBuffer<OrderCommand> commands;
+    @Getter
+    private final RingBuffer<ExecutionReport> reports;
+    private final RingBuffer.Handler<OrderCommand> commandHandler = this::onCommand;
+    private final RingBuffer.Handler<ExecutionReport> reportHandler;
+    private final OrderBook.FillHandler sweepHandler = this::onSweepFill;
+    private final BookJournal.Visitor replayHandler = new Replay();
+
+    private final int shardCount;
+    private final Path snapshotFile;
+    private final Path journalFile;
+    private final int journalCapacity;
+    private BookJournal journal;
+    private long epoch;
+
+    private final ToIntFunction<String> ordinals;
+    // Indexed by symbol ordinal, for commands; by id for the journal, snapshots and expiry
+    private SymbolState[] symbols = new SymbolState[64];
+    private final Map<String, SymbolState> symbolsById = new HashMap<>();
+    private final List<RestingOrder> scratch = new ArrayList<>();
+    private final ExpiryWheel expiries = new ExpiryWheel(EXPIRY_TICK_MILLIS, System.currentTimeMillis());
+    private long nextExpiryCheck;
+    private RestingOrder freeList;
+    private SymbolState sweepState;
+    private long sweepPriceTicks;
+
+    private volatile boolean running;
+    // Cleared only once the sequencer thread has exited, so no report can be published after it
+    private volatile boolean executing;
+    private Thread sequencerThread;
+    private Thread executorThread;
+
+    /**
+     * @param ordinals resolves a symbol id to its ordinal, or -1 if there is no such symbol
+     * @param dataDir where the snapshot and journal live, or null to keep the books in memory only
+     */
+    public SequencerShard(int id, int shardCount, int ringSize, RingBuffer.Handler<ExecutionReport> reportHandler,
+                          ToIntFunction<String> ordinals, Path dataDir, int journalCapacity) {
+        this.id = id;
+        this.ordinals = ordinals;
+        this.shardCount = shardCount;
+        this.commands = new RingBuffer<>(ringSize, OrderCommand::new);
+        this.reports = new RingBuffer<>(ringSize, ExecutionReport::new);
+        this.reportHandler = reportHandler;
+        this.snapshotFile = dataDir != null ? dataDir.resolve("shard-" + id + ".snapshot") : null;
+        this.journalFile = dataDir != null ? dataDir.resolve("shard-" + id + ".journal") : null;
+        this.journalCapacity = journalCapacity;
+    }
+
+    /**
+     * Starts the shard, first rebuilding its books from disk if it has a snapshot or journal.
+     *
+     * @return whether the books were recovered from disk; if not, the caller restores them
+     */
+    public boolean start() {
+        running = true;
+        executing = true;
+        sequencerThread = new Thread(() -> drainLoop(commands, commandHandler, this::expireDue, () -> running),
+                "order-sequencer-" + id);
+        executorThread = new Thread(() -> drainLoop(reports, reportHandler, null, () -> executing),
+                "order-executor-" + id);
+        sequencerThread.setDaemon(true);
+        executorThread.setDaemon(true);
+
+        // Recovery re-emits reports, so the executor must already be draining them
+        executorThread.start();
+        boolean recovered = recover();
+        sequencerThread.start();
+        return recovered;
+    }
+
+    public void stop() {
+        running = false;
+        try {
+            sequencerThread.join(5000);
+            if (sequencerThread.isAlive()) {
+                // Still publishing reports, so the executor keeps running and the books are not snapshotted
+                log.warn("Sequencer of shard {} did not stop in time", id);
+                return;
+            }
+            executing = false;
+            executorThread.join(5000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return;
+        }
+        if (executorThread.isAlive()) {
+            log.warn("Executor of shard {} did not stop in time", id);
+            return;
+        }
+        // Anything the executor left behind is persisted here, before the journal is emptied
+        drainReports();
+        if (journal != null) {
+            // Leave an empty journal behind so the next start only has to load the snapshot
+            snapshot();
+            closeJournal();
+        }
+    }
+
+    private <T> void drainLoop(RingBuffer<T> ring, RingBuffer.Handler<T> handler, Runnable betweenBatches,
+                               BooleanSupplier active) {
+        int spins = 0;
+        // Keep draining once stopped until the ring is empty so accepted work is not lost
+        while (active.getAsBoolean() || ring.backlog() > 0) {
+            try {
+                if (ring.drain(handler, MAX_BATCH) > 0) {
+                    spins = 0;
+                } else {
+                    spins = RingBuffer.idle(spins);
+                }
+                if (betweenBatches != null) {
+                    betweenBatches.run();
+                }
+            } catch (Throwable t) {
+                log.error("Unhandled error in {}", Thread.currentThread().getName(), t);
+            }
+        }
+    }
+
+    /**
+     * Waits for the executor to persist every outstanding report, or persists them on this thread
+     * once the executor has exited: nothing else would consume them then.
+     */
+    private void drainReports() {
+        int spins = 0;
+        while (reports.backlog() > 0) {
+            if (executorThread.isAlive()) {
+                spins = RingBuffer.idle(spins);
+            } else {
+                reports.drain(reportHandler, MAX_BATCH);
+            }
+        }
+    }
+
+    // ---- sequencer thread only below this line ----
+
+    private void onCommand(OrderCommand command, long sequence, boolean endOfBatch) {
+        try {
+            switch (command.getType()) {
+                case NEW_ORDER -> onNewOrder(command);
+                case RESTORE_ORDER -> onRestoreOrder(command);
+                case CANCEL_ORDER -> onCancelOrder(command);
+                case MARKET_TICK -> onMarketTick(command);
+                case SNAPSHOT -> snapshot();
+            }
+        } finally {
+            command.clear();
+        }
+    }
+
+    private void onNewOrder(OrderCommand command) {
+        SymbolState state = state(command.getSymbolOrdinal(), command.getSymbolId(), command.getSymbol());
+        if (state.book.contains(command.getOrderId()) || state.stops.contains(command.getOrderId())) {
+            log.debug("Ignoring duplicate order {} already held by shard {}", command.getOrderId(), id);
+            return;
+        }
+        long market = state.lastPriceTicks > 0 ? state.lastPriceTicks : command.getMarketPriceTicks();
+
+        // Resting orders get first claim on whatever liquidity is left at the latest price
+        sweep(state, market);
+        route(state, command.getOrderId(), command.getUserId(), command.getSide(), command.getOrderType(),
+                command.getQuantity(), 0, command.getLimitPriceTicks(), command.getStopPriceTicks(),
+                command.getExpiresAtMillis(), market);
+    }
+
+    private void onRestoreOrder(OrderCommand command) {
+        SymbolState state = state(command.getSymbolOrdinal(), command.getSymbolId(), command.getSymbol());
+        boolean stop = StopTriggerIndex.isStopType(command.getOrderType());
+        RestingOrder order = stop
+                ? obtain().init(command.getOrderId(), command.getUserId(), state.symbolId, command.getSide(),
+                        command.getOrderType(), command.getStopPriceTicks(), command.getLimitPriceTicks(),
+                        command.getQuantity(), command.getFilledQuantity(), command.getExpiresAtMillis())
+                : obtain().init(command.getOrderId(), command.getUserId(), state.symbolId, command.getSide(),
+                        command.getOrderType(), restingPrice(command.getOrderType(), command.getSide(),
+                                command.getLimitPriceTicks()), 0,
+                        command.getQuantity(), command.getFilledQuantity(), command.getExpiresAtMillis());
+        if (stop ? state.stops.add(order) : state.book.add(order)) {
+            scheduleExpiry(order);
+            journalAdded(state, order, stop, false);
+        } else {
+            recycle(order);
+        }
+    }
+
+    private void onCancelOrder(OrderCommand command) {
+        SymbolState state = existing(command.getSymbolOrdinal());
+        if (state == null) {
+            return;
+        }
+        RestingOrder order = state.book.cancel(command.getOrderId());
+        if (order == null) {
+            order = state.stops.cancel(command.getOrderId());
+        }
+        if (order != null) {
+            report(ExecutionReport.Type.CANCELLED, state, order.getOrderId(), order.getUserId(), order.getSide(),
+                    order.getOrderType(), false, order.getRemainingQuantity(), order.getPriceTicks(),
+                    order.getFilledQuantity(), 0);
+            journalRemoved(state, order.getOrderId());
+            recycle(order);
+        }
+    }
+
+    private void onMarketTick(OrderCommand command) {
+        SymbolState state = state(command.getSymbolOrdinal(), command.getSymbolId(), command.getSymbol());
+        long market = command.getMarketPriceTicks();
+        long volume = command.getQuantity() > 0 ? command.getQuantity() : Long.MAX_VALUE;
+        state.lastPriceTicks = market;
+        state.buyLiquidity = volume;
+        state.sellLiquidity = volume;
+
+        // Orders already resting come ahead of stops this tick triggers
+        sweep(state, market);
+
+        scratch.clear();
+        state.stops.collectTriggered(market, scratch);
+        for (int i = 0; i < scratch.size(); i++) {
+            RestingOrder stop = scratch.get(i);
+            String orderId = stop.getOrderId();
+            String userId = stop.getUserId();
+            Order.OrderSide side = stop.getSide();
+            Order.OrderType orderType = stop.getOrderType();
+            long quantity = stop.getRemainingQuantity();
+            long filled = stop.getFilledQuantity();
+            long stopPrice = stop.getPriceTicks();
+            long limitPrice = stop.getLimitPriceTicks();
+            long expiresAt = stop.getExpiresAtMillis();
+            journalRemoved(state, orderId);
+            recycle(stop);
+            route(state, orderId, userId, side, orderType, quantity, filled, limitPrice, stopPrice, expiresAt, market);
+        }
+        scratch.clear();
+    }
+
+    private void route(SymbolState state, String orderId, String userId, Order.OrderSide side,
+                       Order.OrderType orderType, long quantity, long filled, long limitPrice, long stopPrice,
+                       long expiresAt, long market) {
+        boolean triggered = false;
+        if (StopTriggerIndex.isStopType(orderType)) {
+            if (market == 0 || !StopTriggerIndex.isTriggered(side, stopPrice, market)) {
+                RestingOrder stop = obtain().init(orderId, userId, state.symbolId, side, orderType, stopPrice, limitPrice,
+                        quantity, filled, expiresAt);
+                state.stops.add(stop);
+                scheduleExpiry(stop);
+                journalAdded(state, stop, true, false);
+                return;
+            }
+            // STOP_LOSS becomes a MARKET order and STOP_LIMIT a LIMIT order at its limit price
+            orderType = orderType == Order.OrderType.STOP_LIMIT ? Order.OrderType.LIMIT : Order.OrderType.MARKET;
+            triggered = true;
+        }
+
+        boolean isMarket = orderType == Order.OrderType.MARKET;
+        if (isMarket && market == 0) {
+            report(ExecutionReport.Type.REJECTED, state, orderId, userId, side, orderType, triggered, quantity, 0,
+                    filled, quantity);
+            return;
+        }
+
+        if (market != 0 && (isMarket || isMarketable(side, limitPrice, market))) {
+            long fill = state.take(side, quantity);
+            if (fill > 0) {
+                filled += fill;
+                quantity -= fill;
+                long price = isMarket ? market : limitPrice;
+                report(ExecutionReport.Type.FILLED, state, orderId, userId, side, orderType, triggered, fill,
+                        price, filled, quantity);
+                journalFilled(state, orderId, userId, side, orderType, triggered, fill, price, filled, quantity);
+            }
+            if (quantity == 0) {
+                return;
+            }
+        }
+
+        // Whatever the current liquidity could not absorb waits for later ticks
+        RestingOrder order = obtain().init(orderId, userId, state.symbolId, side, orderType,
+                restingPrice(orderType, side, limitPrice), 0, quantity, filled, expiresAt);
+        state.book.add(order);
+        scheduleExpiry(order);
+        report(ExecutionReport.Type.RESTED, state, orderId, userId, side, orderType, triggered, quantity,
+                isMarket ? 0 : limitPrice, filled, quantity);
+        journalAdded(state, order, false, triggered);
+    }
+
+    private void sweep(SymbolState state, long market) {
+        if (market == 0) {
+            return;
+        }
+        sweepState = state;
+        sweepPriceTicks = market;
+        state.buyLiquidity -= state.book.fillMarketable(Order.OrderSide.BUY, market, state.buyLiquidity, sweepHandler);
+        state.sellLiquidity -= state.book.fillMarketable(Order.OrderSide.SELL, market, state.sellLiquidity, sweepHandler);
+        sweepState = null;
+    }
+
+    private void onSweepFill(RestingOrder order, long quantity, boolean complete) {
+        long price = order.getOrderType() == Order.OrderType.MARKET ? sweepPriceTicks : order.getPriceTicks();
+        report(ExecutionReport.Type.FILLED, sweepState, order.getOrderId(), order.getUserId(), order.getSide(),
+                order.getOrderType(), false, quantity, price, order.getFilledQuantity(), order.getRemainingQuantity());
+        journalFilled(sweepState, order.getOrderId(), order.getUserId(), order.getSide(), order.getOrderType(), false,
+                quantity, price, order.getFilledQuantity(), order.getRemainingQuantity());
+        if (complete) {
+            recycle(order);
+        }
+    }
+
+    private void scheduleExpiry(RestingOrder order) {
+        if (order.getExpiresAtMillis() > 0) {
+            expiries.schedule(order);
+        }
+    }
+
+    /** Expires every order whose deadline has passed; checked once per wheel tick between batches. */
+    private void expireDue() {
+        long now = System.currentTimeMillis();
+        if (now < nextExpiryCheck) {
+            return;
+        }
+        nextExpiryCheck = now - now % EXPIRY_TICK_MILLIS + EXPIRY_TICK_MILLIS;
+        scratch.clear();
+        expiries.advance(now, scratch);
+        for (int i = 0; i < scratch.size(); i++) {
+            RestingOrder order = scratch.get(i);
+            SymbolState state = symbolsById.get(order.getSymbolId());
+            if (state.book.cancel(order.getOrderId()) == null) {
+                state.stops.cancel(order.getOrderId());
+            }
+            report(ExecutionReport.Type.EXPIRED, state, order.getOrderId(), order.getUserId(), order.getSide(),
+                    order.getOrderType(), false, order.getRemainingQuantity(), order.getPriceTicks(),
+                    order.getFilledQuantity(), 0);
+            journalRemoved(state, order.getOrderId());
+            recycle(order);
+        }
+        scratch.clear();
+    }
+
+    private static long restingPrice(Order.OrderType orderType, Order.OrderSide side, long limitPrice) {
+        if (orderType != Order.OrderType.MARKET) {
+            return limitPrice;
+        }
+        return side == Order.OrderSide.BUY ? OrderBook.MARKET_BID : OrderBook.MARKET_ASK;
+    }
+
+    private static boolean isMarketable(Order.OrderSide side, long limitPrice, long market) {
+        return side == Order.OrderSide.BUY ? market <= limitPrice : market >= limitPrice;
+    }
+
+    private void report(ExecutionReport.Type type, SymbolState state, String orderId, String userId,
+                        Order.OrderSide side, Order.OrderType orderType, boolean triggered,
+                        long quantity, long priceTicks, long cumulativeQuantity, long leavesQuantity) {
+        long sequence = reports.next();
+        reports.get(sequence).set(type, orderId, userId, state.symbolId, state.symbol, side, orderType,
+                triggered, quantity, priceTicks, cumulativeQuantity, leavesQuantity);
+        reports.publish(sequence);
+    }
+
+    // ---- journal and snapshots: the book is mutated and its report published before the
+    // mutation is journalled, so a snapshot taken because the journal is full already covers it ----
+
+    private void journalAdded(SymbolState state, RestingOrder order, boolean stop, boolean triggered) {
+        if (journal != null && !journal.added(state.symbolId, state.symbol, order, stop, triggered)) {
+            compactJournal();
+        }
+    }
+
+    private void journalFilled(SymbolState state, String orderId, String userId, Order.OrderSide side,
+                               Order.OrderType orderType, boolean triggered, long quantity, long priceTicks,
+                               long cumulativeQuantity, long leavesQuantity) {
+        if (journal != null && !journal.filled(state.symbolId, orderId, userId, side, orderType, triggered, quantity,
+                priceTicks, cumulativeQuantity, leavesQuantity)) {
+            compactJournal();
+        }
+    }
+
+    private void journalRemoved(SymbolState state, String orderId) {
+        if (journal != null && !journal.removed(state.symbolId, orderId)) {
+            compactJournal();
+        }
+    }
+
+    private void compactJournal() {
+        if (!snapshot()) {
+            log.error("Journal of shard {} is full and could not be snapshotted; disabling book persistence", id);
+            closeJournal();
+            deleteQuietly(snapshotFile);
+            deleteQuietly(journalFile);
+        }
+    }
+
+    /**
+     * Writes every book to a new snapshot and empties the journal. Waits for the executor to
+     * persist all outstanding reports first, since the journal entries being discarded are what
+     * would otherwise replay them after a crash.
+     */
+    private boolean snapshot() {
+        if (journal == null) {
+            return false;
+        }
+        drainReports();
+        long nextEpoch = epoch + 1;
+        try (BookSnapshot.Writer writer = BookSnapshot.create(snapshotFile, shardCount, nextEpoch, symbolsById.size())) {
+            for (SymbolState state : symbolsById.values()) {
+                writer.symbol(state.symbolId, state.symbol, state.lastPriceTicks, state.book.size(), state.stops.size());
+                state.book.forEachInPriority(writer::order);
+                state.stops.forEachInPriority(writer::order);
+            }
+            writer.commit();
+        } catch (IOException | UncheckedIOException e) {
+            log.error("Error writing book snapshot of shard {}", id, e);
+            return false;
+        }
+        epoch = nextEpoch;
+        journal.reset(shardCount, epoch);
+        log.debug("Shard {} snapshotted {} symbols at epoch {}", id, symbolsById.size(), epoch);
+        return true;
+    }
+
+    /**
+     * Loads the snapshot and replays the journal written since it. Runs on the starting thread
+     * before the sequencer thread exists, so it owns the books.
+     */
+    private boolean recover() {
+        if (journalFile == null) {
+            return false;
+        }
+        try {
+            Files.createDirectories(journalFile.getParent());
+            journal = new BookJournal(journalFile, journalCapacity);
+        } catch (IOException e) {
+            log.error("Cannot open book journal {}, running shard {} without book persistence", journalFile, id, e);
+            journal = null;
+            return false;
+        }
+        try {
+            long snapshotEpoch = BookSnapshot.read(snapshotFile, shardCount, replayHandler,
+                    (symbolId, price) -> {
+                        SymbolState state = recovered(symbolId, null);
+                        if (state != null) {
+                            state.lastPriceTicks = price;
+                        }
+                    });
+            // With no snapshot yet, a journal is only usable if it was started from scratch (epoch 0)
+            boolean replayJournal = journal.isValid(shardCount) && journal.epoch() == Math.max(snapshotEpoch, 0);
+            if (snapshotEpoch < 0 && !replayJournal) {
+                resetState();
+                return false;
+            }
+            if (replayJournal) {
+                journal.replay(replayHandler);
+                epoch = journal.epoch();
+            } else {
+                // Crashed between writing a snapshot and emptying the journal: the snapshot has it all
+                epoch = snapshotEpoch;
+                journal.reset(shardCount, epoch);
+            }
+            int orders = 0;
+            for (SymbolState state : symbolsById.values()) {
+                orders += state.book.size() + state.stops.size();
+            }
+            log.info("Shard {} recovered {} orders in {} symbols from snapshot epoch {}", id, orders, symbolsById.size(), epoch);
+            return true;
+        } catch (Exception e) {
+            log.error("Discarding unreadable book state of shard {}, restoring from the database instead", id, e);
+            resetState();
+            return false;
+        }
+    }
+
+    private void resetState() {
+        Arrays.fill(symbols, null);
+        symbolsById.clear();
+        expiries.clear();
+        epoch = 0;
+        journal.reset(shardCount, epoch);
+        deleteQuietly(snapshotFile);
+    }
+
+    private void closeJournal() {
+        try {
+            journal.close();
+        } catch (IOException e) {
+            log.warn("Error closing book journal of shard {}", id, e);
+        }
+        journal = null;
+    }
+
+    private static void deleteQuietly(Path file) {
+        try {
+            Files.deleteIfExists(file);
+        } catch (IOException e) {
+            log.warn("Could not delete {}", file, e);
+        }
+    }
+
+    /**
+     * Applies snapshot and journal records to the books. Fills and stop conversions are reported
+     * again, since the crash may have lost them before they were persisted; the executor's
+     * conditional writes drop the ones that were not.
+     */
+    private final class Replay implements BookJournal.Visitor {
+
+        @Override
+        public void added(String symbolId, String symbol, String orderId, String userId, Order.OrderSide side,
+                          Order.OrderType orderType, long priceTicks, long limitPriceTicks, long remainingQuantity,
+                          long filledQuantity, long expiresAtMillis, boolean stop, boolean triggered) {
+            SymbolState state = recovered(symbolId, symbol);
+            if (state == null) {
+                return;
+            }
+            RestingOrder order = obtain().init(orderId, userId, symbolId, side, orderType, priceTicks, limitPriceTicks,
+                    remainingQuantity, filledQuantity, expiresAtMillis);
+            if (!(stop ? state.stops.add(order) : state.book.add(order))) {
+                recycle(order);
+                return;
+            }
+            scheduleExpiry(order);
+            if (triggered) {
+                report(ExecutionReport.Type.RESTED, state, orderId, userId, side, orderType, true, remainingQuantity,
+                        priceTicks, filledQuantity, remainingQuantity);
+            }
+        }
+
+        @Override
+        public void filled(String symbolId, String orderId, String userId, Order.OrderSide side,
+                           Order.OrderType orderType, boolean triggered, long quantity, long priceTicks,
+                           long cumulativeQuantity, long leavesQuantity) {
+            SymbolState state = recovered(symbolId, null);
+            if (state == null) {
+                return;
+            }
+            RestingOrder filled = state.book.fill(orderId, quantity);
+            if (filled != null) {
+                recycle(filled);
+            }
+            report(ExecutionReport.Type.FILLED, state, orderId, userId, side, orderType, triggered, quantity,
+                    priceTicks, cumulativeQuantity, leavesQuantity);
+        }
+
+        @Override
+        public void removed(String symbolId, String orderId) {
+            SymbolState state = recovered(symbolId, null);
+            if (state == null) {
+                return;
+            }
+            RestingOrder order = state.book.cancel(orderId);
+            if (order == null) {
+                order = state.stops.cancel(orderId);
+            }
+            if (order != null) {
+                recycle(order);
+            }
+        }
+    }
+
+    /** The state of a symbol named in the journal or snapshot; null, and skipped, if it no longer exists. */
+    private SymbolState recovered(String symbolId, String symbol) {
+        SymbolState known = symbolsById.get(symbolId);
+        int ordinal = known != null ? known.ordinal : ordinals.applyAsInt(symbolId);
+        if (ordinal < 0) {
+            log.warn("Shard {} skipping book state of unknown symbol {}", id, symbolId);
+            return null;
+        }
+        return state(ordinal, symbolId, symbol);
+    }
+
+    private SymbolState existing(int ordinal) {
+        return ordinal >= 0 && ordinal < symbols.length ? symbols[ordinal] : null;
+    }
+
+    private SymbolState state(int ordinal, String symbolId, String symbol) {
+        if (ordinal >= symbols.length) {
+            symbols = Arrays.copyOf(symbols, Math.max(symbols.length * 2, ordinal + 1));
+        }
+        SymbolState state = symbols[ordinal];
+        if (state == null) {
+            state = new SymbolState(ordinal, symbolId);
+            symbols[ordinal] = state;
+            symbolsById.put(symbolId, state);
+        }
+        if (state.symbol == null && symbol != null) {
+            state.symbol = symbol;
+        }
+        return state;
+    }
+
+    private RestingOrder obtain() {
+        RestingOrder order = freeList;
+        if (order == null) {
+            return new RestingOrder();
+        }
+        freeList = order.next;
+        order.next = null;
+        return order;
+    }
+
+    private void recycle(RestingOrder order) {
+        expiries.unschedule(order);
+        order.release();
+        order.next = freeList;
+        freeList = order;
+    }
+
+    private static final class SymbolState {
+        private final int ordinal;
+        private final String symbolId;
+        private final OrderBook book;
+        private final StopTriggerIndex stops;
+        private String symbol;
+        private long lastPriceTicks;
+        // Volume left to fill against at lastPriceTicks, per side; unbounded until the first tick
+        private long buyLiquidity = Long.MAX_VALUE;
+        private long sellLiquidity = Long.MAX_VALUE;
+
+        SymbolState(int ordinal, String symbolId) {
+            this.ordinal = ordinal;
+            this.symbolId = symbolId;
+            this.book = new OrderBook(symbolId);
+            this.stops = new StopTriggerIndex(symbolId);
+        }
+
+        long take(Order.OrderSide side, long quantity) {
+            if (side == Order.OrderSide.BUY) {
+                long fill = Math.min(quantity, buyLiquidity);
+                buyLiquidity -= fill;
+                return fill;
+            }
+            long fill = Math.min(quantity, sellLiquidity);
+            sellLiquidity -= fill;
+            return fill;
+        }
+    }
+}
@@ -0,0 +1,87 @@
+package com.stockbrokerage.engine;
+
+import com.stockbrokerage.entity.Order;
+import lombok.Getter;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+
+/**
+ * Untriggered STOP_LOSS / STOP_LIMIT orders for a single symbol, keyed by stop price and split by side.
+ *
+ * Sell stops fire once the market trades at or below their stop (highest stop first), buy stops
+ * once it trades at or above theirs (lowest stop first). Each tick therefore costs one comparison
+ * at the end of each ladder plus the orders it actually triggers. Not thread-safe, same as {@link OrderBook}.
+ */
+public class StopTriggerIndex {
+
+    @Getter
+    private final String symbolId;
+    private final PriceLadder sellStops = new PriceLadder(1);
+    private final PriceLadder buyStops = new PriceLadder(-1);
+    private final Map<String, RestingOrder> ordersById = new HashMap<>();
+
+    public StopTriggerIndex(String symbolId) {
+        this.symbolId = symbolId;
+    }
+
+    /**
+     * Adds a stop order; {@link RestingOrder#getPriceTicks()} is its stop price.
+     */
+    public boolean add(RestingOrder order) {
+        if (ordersById.putIfAbsent(order.getOrderId(), order) != null) {
+            return false;
+        }
+        side(order.getSide()).add(order);
+        return true;
+    }
+
+    public RestingOrder cancel(String orderId) {
+        RestingOrder order = ordersById.remove(orderId);
+        if (order != null) {
+            side(order.getSide()).remove(order);
+        }
+        return order;
+    }
+
+    public boolean contains(String orderId) {
+        return ordersById.containsKey(orderId);
+    }
+
+    public int size() {
+        return ordersById.size();
+    }
+
+    public void forEachInPriority(Consumer<RestingOrder> action) {
+        sellStops.forEach(action);
+        buyStops.forEach(action);
+    }
+
+    /**
+     * Removes every stop triggered at the given price and appends it to {@code out}.
+     */
+    public void collectTriggered(long marketPriceTicks, List<RestingOrder> out) {
+        int start = out.size();
+        sellStops.drainReached(marketPriceTicks, out);
+        buyStops.drainReached(marketPriceTicks, out);
+        for (int i = start; i < out.size(); i++) {
+            ordersById.remove(out.get(i).getOrderId());
+        }
+    }
+
+    public static boolean isStopType(Order.OrderType orderType) {
+        return orderType == Order.OrderType.STOP_LOSS || orderType == Order.OrderType.STOP_LIMIT;
+    }
+
+    public static boolean isTriggered(Order.OrderSide side, long stopPriceTicks, long marketPriceTicks) {
+        return side == Order.OrderSide.SELL
+                ? marketPriceTicks <= stopPriceTicks
+                : marketPriceTicks >= stopPriceTicks;
+    }
+
+    private PriceLadder side(Order.OrderSide side) {
+        return side == Order.OrderSide.SELL ? sellStops : buyStops;
+    }
+}
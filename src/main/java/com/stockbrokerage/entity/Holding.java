@@ -8,11 +8,14 @@ import org.springframework.data.annotation.Id;
 import org.springframework.data.annotation.CreatedDate;
 import org.springframework.data.annotation.LastModifiedDate;
 import org.springframework.data.mongodb.core.mapping.Document;
+import org.springframework.data.mongodb.core.mapping.Field;
+import org.springframework.data.mongodb.core.mapping.FieldType;
 import org.springframework.data.mongodb.core.index.Indexed;
 import org.springframework.data.mongodb.core.index.CompoundIndex;
 
 import java.math.BigDecimal;
 import java.time.LocalDateTime;
+import java.util.List;
 
 @Data
 @NoArgsConstructor
@@ -32,8 +35,12 @@ public class Holding {
     private String symbolId;
     
     private Long quantity;
+    private Long lockedQuantity; // reserved by open SELL orders; written by the account state cache
+    @Field(targetType = FieldType.DECIMAL128)
     private BigDecimal averagePrice;
+    @Field(targetType = FieldType.DECIMAL128)
     private BigDecimal totalCost;
+    private List<String> appliedTrades; // recent trade ids settled into this holding, so none is applied twice
     
     @CreatedDate
     private LocalDateTime createdAt;
@@ -0,0 +1,47 @@
+package com.stockbrokerage.entity;
+
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.index.CompoundIndex;
+import org.springframework.data.mongodb.core.mapping.Document;
+import org.springframework.data.mongodb.core.mapping.Field;
+import org.springframework.data.mongodb.core.mapping.FieldType;
+
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+
+/** One change to an account's cash, numbered per account, with the balances it produced. Append-only. */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@Builder
+@Document(collection = "ledger_entries")
+@CompoundIndex(name = "account_sequence", def = "{'userId': 1, 'sequence': 1}", unique = true)
+public class LedgerEntry {
+    
+    @Id
+    private String id;
+    
+    private String userId;
+    private Long sequence;
+    private EntryType type;
+    
+    @Field(targetType = FieldType.DECIMAL128)
+    private BigDecimal balanceChange;
+    @Field(targetType = FieldType.DECIMAL128)
+    private BigDecimal lockedChange;
+    @Field(targetType = FieldType.DECIMAL128)
+    private BigDecimal balance;
+    @Field(targetType = FieldType.DECIMAL128)
+    private BigDecimal lockedBalance;
+    
+    private String reference; // order, trade or payment the change belongs to
+    private LocalDateTime createdAt;
+    
+    public enum EntryType {
+        OPENING, DEPOSIT, WITHDRAWAL, FEE, LOCK, RELEASE, TRADE, SETTLEMENT, REVERSAL, ADJUSTMENT
+    }
+}
@@ -0,0 +1,37 @@
+package com.stockbrokerage.entity;
+
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.index.CompoundIndex;
+import org.springframework.data.mongodb.core.mapping.Document;
+import org.springframework.data.mongodb.core.mapping.Field;
+import org.springframework.data.mongodb.core.mapping.FieldType;
+
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+
+/** An account's balances as of a ledger entry, materialized every app.ledger.snapshot-every entries. */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@Builder
+@Document(collection = "ledger_snapshots")
+@CompoundIndex(name = "account_sequence", def = "{'userId': 1, 'sequence': 1}", unique = true)
+public class LedgerSnapshot {
+    
+    @Id
+    private String id;
+    
+    private String userId;
+    private Long sequence;
+    
+    @Field(targetType = FieldType.DECIMAL128)
+    private BigDecimal balance;
+    @Field(targetType = FieldType.DECIMAL128)
+    private BigDecimal lockedBalance;
+    
+    private LocalDateTime createdAt;
+}
@@ -7,17 +7,20 @@ import lombok.Builder;
 import org.springframework.data.annotation.Id;
 import org.springframework.data.annotation.CreatedDate;
 import org.springframework.data.mongodb.core.mapping.Document;
+import org.springframework.data.mongodb.core.index.CompoundIndex;
 import org.springframework.data.mongodb.core.index.Indexed;
 
 import java.math.BigDecimal;
 import java.time.LocalDateTime;
+import java.util.List;
 
 @Data
 @NoArgsConstructor
 @AllArgsConstructor
 @Builder
 @Document(collection = "orders")
-public class Order {
+@CompoundIndex(name = "outbox", def = "{'outbox.createdAt': 1}", sparse = true)
+public class Order implements OutboxDocument {
     
     @Id
     private String id;
@@ -33,17 +36,24 @@ public class Order {
     private Long quantity;
     private BigDecimal price;
     private BigDecimal stopPrice;
+    private TimeInForce timeInForce;
     private OrderStatus status;
     private Long filledQuantity;
+    private Long remainingQuantity;
     private BigDecimal filledPrice;
     private BigDecimal orderValue;
     private BigDecimal fees;
+    private BigDecimal lockedAmount; // funds locked at placement, BUY only
     
     @CreatedDate
     private LocalDateTime placedAt;
     
     private LocalDateTime filledAt;
+    private LocalDateTime triggeredAt;
     private LocalDateTime expiresAt;
+    private LocalDateTime expiredAt;
+    
+    private List<OutboxMessage> outbox; // the order event, until relayed to Kafka
     
     public enum OrderType {
         MARKET, LIMIT, STOP_LOSS, STOP_LIMIT
@@ -54,6 +64,11 @@ public class Order {
     }
     
     public enum OrderStatus {
-        PENDING, FILLED, PARTIALLY_FILLED, CANCELLED, REJECTED
+        PENDING, FILLED, PARTIALLY_FILLED, CANCELLED, REJECTED, EXPIRED
+    }
+    
+    /** DAY expires at today's market close, GTD at the requested time, GTC after the configured maximum. */
+    public enum TimeInForce {
+        DAY, GTC, GTD
     }
 }
\ No newline at end of file
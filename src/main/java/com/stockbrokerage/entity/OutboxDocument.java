@@ -0,0 +1,14 @@
+package com.stockbrokerage.entity;
+
+import java.util.List;
+
+/**
+ * A document that carries the events of its own write in an {@code outbox} field, so the state
+ * change and the events it must publish are stored by one single-document write.
+ */
+public interface OutboxDocument {
+    
+    String getId();
+    
+    List<OutboxMessage> getOutbox();
+}
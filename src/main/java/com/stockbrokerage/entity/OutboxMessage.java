@@ -0,0 +1,21 @@
+package com.stockbrokerage.entity;
+
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+
+import java.time.LocalDateTime;
+
+/** A Kafka message stored in the document whose write produced it, until the outbox relay publishes it. */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@Builder
+public class OutboxMessage {
+    
+    private String topic;
+    private String key;
+    private Object payload;
+    private LocalDateTime createdAt;
+}
@@ -0,0 +1,45 @@
+package com.stockbrokerage.entity;
+
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.index.CompoundIndex;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+import java.time.LocalDateTime;
+import java.util.List;
+
+/**
+ * One user's account value snapshots for one month, as parallel delta-encoded arrays: each entry
+ * is the difference to the previous one, so a month of snapshots stays a few small integers each.
+ *
+ * {@code times} are seconds after the previous snapshot, the first one after {@code start};
+ * {@code values} (holdings at market) and {@code cash} are in cents, the first entry after zero.
+ * The last* fields hold the decoded latest snapshot, so the next one is appended without reading
+ * the arrays back.
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@Builder
+@Document(collection = "portfolio_history")
+@CompoundIndex(name = "user_month", def = "{'userId': 1, 'month': 1}", unique = true)
+public class PortfolioHistory {
+
+    @Id
+    private String id;
+
+    private String userId;
+    private String month; // yyyy-MM
+
+    private LocalDateTime start;
+    private List<Long> times;
+    private List<Long> values;
+    private List<Long> cash;
+
+    private LocalDateTime lastTime;
+    private Long lastValue;
+    private Long lastCash;
+}
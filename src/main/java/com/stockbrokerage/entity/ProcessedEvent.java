@@ -0,0 +1,28 @@
+package com.stockbrokerage.entity;
+
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.mapping.Document;
+import org.springframework.data.mongodb.core.index.Indexed;
+
+import java.time.LocalDateTime;
+
+/** An event a consumer has applied; kept for app.idempotency.retention-hours by a TTL index. */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@Builder
+@Document(collection = "processed_events")
+public class ProcessedEvent {
+    
+    @Id
+    private String id; // consumer:eventId
+    
+    @Indexed
+    private String consumer;
+    
+    private LocalDateTime processedAt;
+}
@@ -0,0 +1,48 @@
+package com.stockbrokerage.entity;
+
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.index.CompoundIndex;
+import org.springframework.data.mongodb.core.mapping.Document;
+import org.springframework.data.mongodb.core.mapping.Field;
+import org.springframework.data.mongodb.core.mapping.FieldType;
+
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+
+/** A value a reconciliation run recomputed differently from what is stored. */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@Builder
+@Document(collection = "reconciliation_breaks")
+@CompoundIndex(name = "run_user", def = "{'runId': 1, 'userId': 1}")
+public class ReconciliationBreak {
+    
+    @Id
+    private String id;
+    
+    private String runId;
+    private String userId;
+    private BreakType type;
+    private String symbolId; // position breaks only
+    
+    @Field(targetType = FieldType.DECIMAL128)
+    private BigDecimal expected; // recomputed
+    @Field(targetType = FieldType.DECIMAL128)
+    private BigDecimal actual; // stored
+    
+    private String detail;
+    private LocalDateTime createdAt;
+    
+    public enum BreakType {
+        POSITION,   // holding quantity vs the net of the user's fills
+        CASH,       // wallet balance vs the ledger
+        LOCKED_CASH, // wallet locked balance vs the ledger
+        LEDGER,     // an entry whose sequence or balances do not follow from the one before
+        TRADE_CASH  // trade transactions vs the fills they were booked for
+    }
+}
@@ -9,6 +9,7 @@ import org.springframework.data.annotation.CreatedDate;
 import org.springframework.data.mongodb.core.mapping.Document;
 import org.springframework.data.mongodb.core.index.Indexed;
 
+import java.math.BigDecimal;
 import java.time.LocalDateTime;
 
 @Data
@@ -28,6 +29,7 @@ public class Symbol {
     private String exchange;
     private String sector;
     private Boolean isActive;
+    private BigDecimal marketCollar; // headroom over the last price reserved for market buys, e.g. 0.05; null uses the default
     
     @CreatedDate
     private LocalDateTime createdAt;
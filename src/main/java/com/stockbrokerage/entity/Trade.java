@@ -5,9 +5,10 @@ import lombok.NoArgsConstructor;
 import lombok.AllArgsConstructor;
 import lombok.Builder;
 import org.springframework.data.annotation.Id;
-import org.springframework.data.annotation.CreatedDate;
-import org.springframework.data.mongodb.core.mapping.Document;
-import org.springframework.data.mongodb.core.index.Indexed;
+import org.springframework.data.mongodb.core.mapping.Field;
+import org.springframework.data.mongodb.core.mapping.FieldType;
+import org.springframework.data.mongodb.core.mapping.TimeSeries;
+import org.springframework.data.mongodb.core.timeseries.Granularity;
 
 import java.math.BigDecimal;
 import java.time.LocalDateTime;
@@ -16,27 +17,29 @@ import java.time.LocalDateTime;
 @NoArgsConstructor
 @AllArgsConstructor
 @Builder
-@Document(collection = "trades")
+// Fills are stored as a time-series collection: Mongo buckets them per symbol and time, so the tape
+// stays compact and range scans read a few buckets. Its indexes are created with the collection
+// by TradeService, since index annotations would create it as a plain collection first.
+@TimeSeries(collection = "trades", timeField = "executedAt", metaField = "symbolId", granularity = Granularity.SECONDS)
 public class Trade {
     
     @Id
     private String id;
     
-    @Indexed
     private String orderId;
     
-    @Indexed
     private String symbolId;
     
-    @Indexed
     private String userId;
     
     private Order.OrderSide side;
     private Long quantity;
+    @Field(targetType = FieldType.DECIMAL128)
     private BigDecimal price;
+    @Field(targetType = FieldType.DECIMAL128)
     private BigDecimal totalValue;
+    @Field(targetType = FieldType.DECIMAL128)
     private BigDecimal fees;
     
-    @CreatedDate
     private LocalDateTime executedAt;
 }
\ No newline at end of file
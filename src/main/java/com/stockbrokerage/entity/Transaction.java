@@ -7,17 +7,20 @@ import lombok.Builder;
 import org.springframework.data.annotation.Id;
 import org.springframework.data.annotation.CreatedDate;
 import org.springframework.data.mongodb.core.mapping.Document;
+import org.springframework.data.mongodb.core.index.CompoundIndex;
 import org.springframework.data.mongodb.core.index.Indexed;
 
 import java.math.BigDecimal;
 import java.time.LocalDateTime;
+import java.util.List;
 
 @Data
 @NoArgsConstructor
 @AllArgsConstructor
 @Builder
 @Document(collection = "transactions")
-public class Transaction {
+@CompoundIndex(name = "outbox", def = "{'outbox.createdAt': 1}", sparse = true)
+public class Transaction implements OutboxDocument {
     
     @Id
     private String id;
@@ -39,6 +42,8 @@ public class Transaction {
     @CreatedDate
     private LocalDateTime createdAt;
     
+    private List<OutboxMessage> outbox; // the portfolio update of a trade settlement, until relayed to Kafka
+    
     public enum TransactionType {
         DEPOSIT, WITHDRAWAL, FEE, BUY_SETTLEMENT, SELL_SETTLEMENT, STOCK_PURCHASE, STOCK_SALE
     }
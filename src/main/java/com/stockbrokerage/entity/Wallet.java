@@ -8,6 +8,8 @@ import org.springframework.data.annotation.Id;
 import org.springframework.data.annotation.CreatedDate;
 import org.springframework.data.annotation.LastModifiedDate;
 import org.springframework.data.mongodb.core.mapping.Document;
+import org.springframework.data.mongodb.core.mapping.Field;
+import org.springframework.data.mongodb.core.mapping.FieldType;
 import org.springframework.data.mongodb.core.index.Indexed;
 
 import java.math.BigDecimal;
@@ -27,7 +29,9 @@ public class Wallet {
     private String userId;
     
     private String currency;
+    @Field(targetType = FieldType.DECIMAL128)
     private BigDecimal balance;
+    @Field(targetType = FieldType.DECIMAL128)
     private BigDecimal lockedBalance;
     
     @CreatedDate
@@ -0,0 +1,24 @@
+package com.stockbrokerage.events;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.LocalDateTime;
+
+/**
+ * Takes a cancelled order off the book. Published on order-events with the order's symbolId as
+ * key, like the order itself, so it reaches the consumer that holds the order, after the order.
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@Builder
+public class OrderCancelledEvent {
+    
+    private String orderId;
+    private String userId;
+    private String symbolId;
+    private LocalDateTime createdAt;
+}
@@ -7,6 +7,7 @@ import lombok.Data;
 import lombok.NoArgsConstructor;
 
 import java.math.BigDecimal;
+import java.time.LocalDateTime;
 
 @Data
 @NoArgsConstructor
@@ -17,8 +18,12 @@ public class OrderPlacedEvent {
     private String orderId;
     private String userId;
     private String symbolId;
+    private String symbol;
     private Order.OrderType orderType;
     private Order.OrderSide side;
     private Long quantity;
     private BigDecimal price;
+    private BigDecimal stopPrice;
+    private LocalDateTime expiresAt;
+    private LocalDateTime createdAt; // when the event was published, for pipeline latency
 }
\ No newline at end of file
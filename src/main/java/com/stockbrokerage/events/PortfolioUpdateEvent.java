@@ -17,9 +17,11 @@ public class PortfolioUpdateEvent {
     private String userId;
     private String symbolId;
     private String symbol;
-    private String eventType; // TRADE_EXECUTED, DEPOSIT, WITHDRAWAL
+    private String eventType; // TRADE_EXECUTED, DEPOSIT, WITHDRAWAL, ORDER_REJECTED, ORDER_CANCELLED
     private Long quantityChange;
     private BigDecimal balanceChange;
     private BigDecimal newBalance;
     private LocalDateTime timestamp;
+    private LocalDateTime createdAt; // when the event was published, for pipeline latency
+    private LocalDateTime orderPlacedAt; // of the order whose trade caused it, if any
 }
\ No newline at end of file
@@ -25,5 +25,7 @@ public class TradeExecutedEvent {
     private BigDecimal executionPrice;
     private BigDecimal totalValue;
     private BigDecimal fees;
+    private BigDecimal releasedAmount; // share of the order's locked funds this fill releases, BUY only
     private LocalDateTime executedAt;
+    private LocalDateTime orderPlacedAt; // carried downstream for end-to-end latency
 }
\ No newline at end of file
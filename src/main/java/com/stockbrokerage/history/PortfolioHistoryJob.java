@@ -0,0 +1,79 @@
+package com.stockbrokerage.history;
+
+import com.stockbrokerage.reconciliation.UserShards;
+import com.stockbrokerage.service.MarketDataService;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.time.YearMonth;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Snapshots every account's value, holdings at the last price and cash, into
+ * {@code portfolio_history}, one document per user per month, so a year of history is read back
+ * as twelve documents rather than recomputed from trades.
+ *
+ * Like reconciliation, the userId space is cut into {@code app.history.shards} ranges snapshotted
+ * in parallel on a fork-join pool. Snapshots are keyed to the trading day, timed at its close, and
+ * an account that already has one for the day is skipped, so running the job again that day, or on
+ * two instances at once, does not duplicate it.
+ */
+@Component
+@RequiredArgsConstructor
+@Slf4j
+public class PortfolioHistoryJob {
+
+    @Value("${app.history.shards:64}")
+    private int shards;
+
+    @Value("${app.history.parallelism:8}")
+    private int parallelism;
+
+    @Value("${app.trading.market-hours.end:16:00}")
+    private LocalTime marketClose;
+
+    private final MongoTemplate mongoTemplate;
+    private final MarketDataService marketDataService;
+
+    public record Report(LocalDateTime time, long accounts, Duration elapsed) {
+    }
+
+    @Scheduled(cron = "${app.history.cron:0 15 16 * * MON-FRI}")
+    public void scheduledRun() {
+        run();
+    }
+
+    public Report run() {
+        LocalDateTime time = LocalDate.now().atTime(marketClose);
+        long start = System.nanoTime();
+        LongAdder accounts = new LongAdder();
+        int shardCount = UserShards.count(shards);
+        log.info("Portfolio history snapshot at {} started over {} shards", time, shardCount);
+
+        UserShards.forEach(parallelism, shardCount, shard -> {
+            try {
+                new ShardSnapshotter(mongoTemplate, marketDataService, time, shard, shardCount, accounts).snapshot();
+            } catch (RuntimeException e) {
+                // One failed shard leaves the others' snapshots standing
+                log.error("Portfolio history snapshot at {} failed on shard {}", time, shard, e);
+            }
+        });
+
+        Report report = new Report(time, accounts.sum(), Duration.ofNanos(System.nanoTime() - start));
+        log.info("Portfolio history snapshot at {} finished: {} accounts in {}", time, report.accounts(),
+                report.elapsed());
+        return report;
+    }
+
+    static String month(LocalDateTime time) {
+        return YearMonth.from(time).toString();
+    }
+}
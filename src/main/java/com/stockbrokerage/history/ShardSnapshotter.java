@@ -0,0 +1,160 @@
+package com.stockbrokerage.history;
+
+import com.stockbrokerage.entity.Holding;
+import com.stockbrokerage.entity.PortfolioHistory;
+import com.stockbrokerage.entity.Wallet;
+import com.stockbrokerage.reconciliation.UserShards;
+import com.stockbrokerage.service.MarketDataService;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.BulkOperationException;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Stream;
+
+/**
+ * Snapshots the accounts of one userId range: wallets are read through one cursor and, a batch of
+ * accounts at a time, their holdings are valued at the last price and the batch's snapshots
+ * appended to their months in one bulk write.
+ */
+class ShardSnapshotter {
+
+    private static final int BATCH = 500;
+    private static final int DUPLICATE_KEY = 11000;
+
+    private final MongoTemplate mongoTemplate;
+    private final MarketDataService marketDataService;
+    private final LocalDateTime time;
+    private final String month;
+    private final Criteria range;
+    private final LongAdder accounts;
+    // Prices read so far, so each symbol is priced once per shard
+    private final Map<String, BigDecimal> prices = new HashMap<>();
+
+    ShardSnapshotter(MongoTemplate mongoTemplate, MarketDataService marketDataService, LocalDateTime time,
+                     int shard, int shardCount, LongAdder accounts) {
+        this.mongoTemplate = mongoTemplate;
+        this.marketDataService = marketDataService;
+        this.time = time;
+        this.month = PortfolioHistoryJob.month(time);
+        this.range = UserShards.range(shard, shardCount);
+        this.accounts = accounts;
+    }
+
+    void snapshot() {
+        Query query = new Query(range)
+                .with(Sort.by(Sort.Direction.ASC, "userId"))
+                .cursorBatchSize(BATCH);
+        query.fields().include("userId").include("balance");
+        List<Wallet> batch = new ArrayList<>(BATCH);
+        try (Stream<Wallet> wallets = mongoTemplate.stream(query, Wallet.class)) {
+            Iterator<Wallet> rows = wallets.iterator();
+            while (rows.hasNext()) {
+                batch.add(rows.next());
+                if (batch.size() == BATCH) {
+                    write(batch);
+                    batch.clear();
+                }
+            }
+        }
+        if (!batch.isEmpty()) {
+            write(batch);
+        }
+    }
+
+    private void write(List<Wallet> wallets) {
+        List<String> userIds = wallets.stream().map(Wallet::getUserId).toList();
+        Map<String, Long> values = holdingsValues(userIds);
+        Map<String, PortfolioHistory> months = lastSnapshots(userIds);
+
+        BulkOperations bulk = mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, PortfolioHistory.class);
+        int writes = 0;
+        for (Wallet wallet : wallets) {
+            String userId = wallet.getUserId();
+            long value = values.getOrDefault(userId, 0L);
+            long cash = cents(wallet.getBalance());
+            PortfolioHistory last = months.get(userId);
+            if (last == null) {
+                // A run racing this one for a new month loses on the unique index
+                bulk.insert(PortfolioHistory.builder()
+                        .userId(userId)
+                        .month(month)
+                        .start(time)
+                        .times(new ArrayList<>(List.of(0L)))
+                        .values(new ArrayList<>(List.of(value)))
+                        .cash(new ArrayList<>(List.of(cash)))
+                        .lastTime(time)
+                        .lastValue(value)
+                        .lastCash(cash)
+                        .build());
+            } else if (last.getLastTime().toLocalDate().isBefore(time.toLocalDate())) {
+                // Guarded on the last snapshot read, so a run that appended since cannot be appended over
+                bulk.updateOne(Query.query(Criteria.where("_id").is(last.getId()).and("lastTime").is(last.getLastTime())),
+                        new Update()
+                                .push("times", Duration.between(last.getLastTime(), time).toSeconds())
+                                .push("values", value - last.getLastValue())
+                                .push("cash", cash - last.getLastCash())
+                                .set("lastTime", time)
+                                .set("lastValue", value)
+                                .set("lastCash", cash));
+            } else {
+                continue;
+            }
+            writes++;
+        }
+        if (writes > 0) {
+            try {
+                bulk.execute();
+            } catch (BulkOperationException e) {
+                if (!e.getErrors().stream().allMatch(error -> error.getCode() == DUPLICATE_KEY)) {
+                    throw e;
+                }
+            }
+        }
+        accounts.add(writes);
+    }
+
+    /** Market value of each user's holdings, in cents; a symbol without a price is valued at cost. */
+    private Map<String, Long> holdingsValues(List<String> userIds) {
+        Query query = Query.query(Criteria.where("userId").in(userIds).and("quantity").gt(0));
+        query.fields().include("userId").include("symbolId").include("quantity").include("averagePrice");
+        Map<String, BigDecimal> values = new HashMap<>();
+        for (Holding holding : mongoTemplate.find(query, Holding.class)) {
+            BigDecimal price = prices.computeIfAbsent(holding.getSymbolId(), marketDataService::getLastPrice);
+            if (price == null) {
+                price = holding.getAveragePrice() != null ? holding.getAveragePrice() : BigDecimal.ZERO;
+            }
+            values.merge(holding.getUserId(), price.multiply(BigDecimal.valueOf(holding.getQuantity())), BigDecimal::add);
+        }
+        Map<String, Long> cents = new HashMap<>();
+        values.forEach((userId, value) -> cents.put(userId, cents(value)));
+        return cents;
+    }
+
+    private Map<String, PortfolioHistory> lastSnapshots(List<String> userIds) {
+        Query query = Query.query(Criteria.where("userId").in(userIds).and("month").is(month));
+        query.fields().include("userId").include("lastTime").include("lastValue").include("lastCash");
+        Map<String, PortfolioHistory> months = new HashMap<>();
+        for (PortfolioHistory history : mongoTemplate.find(query, PortfolioHistory.class)) {
+            months.put(history.getUserId(), history);
+        }
+        return months;
+    }
+
+    private static long cents(BigDecimal amount) {
+        return amount != null ? amount.movePointRight(2).setScale(0, RoundingMode.HALF_UP).longValueExact() : 0L;
+    }
+}
@@ -0,0 +1,228 @@
+package com.stockbrokerage.idempotency;
+
+import com.stockbrokerage.entity.ProcessedEvent;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.index.Index;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Makes at-least-once consumers idempotent: remembers, per consumer, the ids of events already
+ * applied, so a redelivered event is skipped instead of applied twice.
+ *
+ * Ids are kept in {@code processed_events} for {@code app.idempotency.retention-hours}, fronted by
+ * a Bloom filter per consumer holding every stored id. Most events are new, and for those the
+ * filter answers "definitely new" without a lookup; only its "maybe" answers go to the store.
+ * Marks are written in bulk every {@code app.idempotency.flush-interval-ms}, so a crash can lose
+ * the marks of events whose offsets were not committed yet, and those events are applied again.
+ * Consumers whose effects are not idempotent, like settlement, use {@link #markProcessedNow} to
+ * store their marks before the listener returns.
+ */
+@Component
+@RequiredArgsConstructor
+@Slf4j
+public class ProcessedEvents {
+
+    @Value("${app.idempotency.expected-events:1000000}")
+    private long expectedEvents;
+
+    @Value("${app.idempotency.false-positive-rate:0.01}")
+    private double falsePositiveRate;
+
+    @Value("${app.idempotency.retention-hours:72}")
+    private long retentionHours;
+
+    private final MongoTemplate mongoTemplate;
+
+    private final Map<String, Filter> filters = new ConcurrentHashMap<>();
+    private final Set<String> pending = ConcurrentHashMap.newKeySet();
+
+    /**
+     * Two generations, each covering one retention period: ids move to the older one on rotation and
+     * are dropped a period later, by which time the store has expired them too.
+     */
+    private final class Filter {
+        private volatile BloomFilter current = newBloomFilter();
+        private volatile BloomFilter previous = newBloomFilter();
+        private volatile LocalDateTime rotatedAt = LocalDateTime.now();
+
+        void put(String eventId) {
+            current.put(eventId);
+        }
+
+        boolean mightContain(String eventId) {
+            return current.mightContain(eventId) || previous.mightContain(eventId);
+        }
+
+        void rotateIfDue(LocalDateTime now) {
+            if (rotatedAt.plusHours(retentionHours).isBefore(now)) {
+                previous = current;
+                current = newBloomFilter();
+                rotatedAt = now;
+            }
+        }
+    }
+
+    @PostConstruct
+    public void createStore() {
+        mongoTemplate.indexOps(ProcessedEvent.class).ensureIndex(new Index().on("processedAt", Sort.Direction.ASC)
+                .expire(Duration.ofHours(retentionHours)));
+    }
+
+    /** Drops the events this consumer has already processed, and repeats within the list. */
+    public <T> List<T> filterNew(String consumer, List<T> events, Function<T, String> idOf) {
+        Filter filter = filter(consumer);
+        List<String> maybe = new ArrayList<>();
+        for (T event : events) {
+            String eventId = idOf.apply(event);
+            if (eventId != null && filter.mightContain(eventId)) {
+                maybe.add(eventId);
+            }
+        }
+        Set<String> processed = processed(consumer, maybe);
+        Set<String> seen = new HashSet<>();
+        List<T> fresh = new ArrayList<>(events.size());
+        for (T event : events) {
+            String eventId = idOf.apply(event);
+            if (eventId == null || (!processed.contains(eventId) && seen.add(eventId))) {
+                fresh.add(event);
+            }
+        }
+        return fresh;
+    }
+
+    public boolean isProcessed(String consumer, String eventId) {
+        return eventId != null && filter(consumer).mightContain(eventId)
+                && !processed(consumer, List.of(eventId)).isEmpty();
+    }
+
+    public void markProcessed(String consumer, Collection<String> eventIds) {
+        Filter filter = filter(consumer);
+        for (String eventId : eventIds) {
+            if (eventId != null) {
+                filter.put(eventId);
+                pending.add(key(consumer, eventId));
+            }
+        }
+    }
+
+    /**
+     * {@link #markProcessed}, writing the marks before returning. If the write fails they are left
+     * to the next flush rather than thrown, since the events were applied either way.
+     */
+    public void markProcessedNow(String consumer, Collection<String> eventIds) {
+        markProcessed(consumer, eventIds);
+        List<String> keys = eventIds.stream().filter(Objects::nonNull).map(eventId -> key(consumer, eventId)).toList();
+        if (!keys.isEmpty()) {
+            write(keys, LocalDateTime.now());
+        }
+    }
+
+    @Scheduled(fixedDelayString = "${app.idempotency.flush-interval-ms:50}")
+    public void flush() {
+        LocalDateTime now = LocalDateTime.now();
+        filters.values().forEach(filter -> filter.rotateIfDue(now));
+        if (!pending.isEmpty()) {
+            write(new ArrayList<>(pending), now);
+        }
+    }
+
+    private void write(List<String> keys, LocalDateTime now) {
+        BulkOperations bulk = mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, ProcessedEvent.class);
+        for (String key : keys) {
+            bulk.upsert(Query.query(Criteria.where("_id").is(key)), new Update()
+                    .setOnInsert("consumer", key.substring(0, key.indexOf(':')))
+                    .setOnInsert("processedAt", now));
+        }
+        try {
+            bulk.execute();
+            // Only once stored, so a lookup always finds an id in one place or the other
+            keys.forEach(pending::remove);
+        } catch (RuntimeException e) {
+            log.error("Error writing {} processed event ids, will retry", keys.size(), e);
+        }
+    }
+
+    @PreDestroy
+    public void close() {
+        flush();
+    }
+
+    private Filter filter(String consumer) {
+        Filter filter = filters.get(consumer);
+        return filter != null ? filter : filters.computeIfAbsent(consumer, this::load);
+    }
+
+    // The filter must hold every stored id to answer "definitely new", so it starts from the store
+    private Filter load(String consumer) {
+        Filter filter = new Filter();
+        Query query = Query.query(Criteria.where("consumer").is(consumer));
+        query.fields().include("_id");
+        int prefix = consumer.length() + 1;
+        long loaded = 0;
+        try (Stream<ProcessedEvent> stored = mongoTemplate.stream(query, ProcessedEvent.class)) {
+            for (ProcessedEvent event : (Iterable<ProcessedEvent>) stored::iterator) {
+                filter.put(event.getId().substring(prefix));
+                loaded++;
+            }
+        }
+        log.info("Loaded {} processed event ids for consumer {}", loaded, consumer);
+        return filter;
+    }
+
+    private Set<String> processed(String consumer, List<String> eventIds) {
+        if (eventIds.isEmpty()) {
+            return Set.of();
+        }
+        Set<String> processed = new HashSet<>();
+        List<String> lookup = new ArrayList<>();
+        for (String eventId : eventIds) {
+            if (pending.contains(key(consumer, eventId))) {
+                processed.add(eventId);
+            } else {
+                lookup.add(key(consumer, eventId));
+            }
+        }
+        if (!lookup.isEmpty()) {
+            Query query = Query.query(Criteria.where("_id").in(lookup));
+            query.fields().include("_id");
+            int prefix = consumer.length() + 1;
+            processed.addAll(mongoTemplate.find(query, ProcessedEvent.class).stream()
+                    .map(event -> event.getId().substring(prefix))
+                    .collect(Collectors.toSet()));
+        }
+        return processed;
+    }
+
+    private static String key(String consumer, String eventId) {
+        return consumer + ":" + eventId;
+    }
+
+    private BloomFilter newBloomFilter() {
+        return new BloomFilter(expectedEvents, falsePositiveRate);
+    }
+}
@@ -20,7 +20,7 @@ public class EventPublisher {
     private final KafkaTemplate<String, Object> kafkaTemplate;
     
     public void publishOrderPlacedEvent(OrderPlacedEvent event) {
-        publishEvent("order-events", event.getOrderId(), event, "Order placed event");
+        publishEvent("order-events", event.getSymbolId(), event, "Order placed event");
     }
     
     public void publishTradeExecutedEvent(TradeExecutedEvent event) {
@@ -8,6 +8,8 @@ import org.springframework.kafka.annotation.KafkaListener;
 import org.springframework.stereotype.Service;
 
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 
 @Service
@@ -17,8 +19,18 @@ public class MarketDataConsumer {
     
     private final MarketDataWebSocketHandler webSocketHandler;
     
-    @KafkaListener(topics = "market-data", groupId = "websocket-broadcast-group")
-    public void processMarketDataUpdate(MarketDataEvent event) {
+    // Clients only need the latest price, so a batch is broadcast as its last tick per symbol
+    @KafkaListener(topics = "market-data", groupId = "websocket-broadcast-group",
+            containerFactory = "marketDataListenerContainerFactory")
+    public void processMarketDataUpdates(List<MarketDataEvent> events) {
+        Map<String, MarketDataEvent> latest = new LinkedHashMap<>();
+        for (MarketDataEvent event : events) {
+            latest.put(event.getSymbolId(), event);
+        }
+        latest.values().forEach(this::broadcast);
+    }
+    
+    private void broadcast(MarketDataEvent event) {
         try {
             log.debug("Broadcasting market data update: {} - {}", event.getSymbol(), event.getPrice());
             
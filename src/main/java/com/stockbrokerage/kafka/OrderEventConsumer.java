@@ -1,128 +1,108 @@
 package com.stockbrokerage.kafka;
 
-import com.stockbrokerage.entity.Order;
-import com.stockbrokerage.entity.Symbol;
+import com.stockbrokerage.engine.OrderSequencer;
+import com.stockbrokerage.events.MarketDataEvent;
+import com.stockbrokerage.events.OrderCancelledEvent;
 import com.stockbrokerage.events.OrderPlacedEvent;
-import com.stockbrokerage.events.TradeExecutedEvent;
-import com.stockbrokerage.repository.OrderRepository;
-import com.stockbrokerage.repository.SymbolRepository;
+import com.stockbrokerage.idempotency.ProcessedEvents;
+import com.stockbrokerage.metrics.PipelineMetrics;
 import com.stockbrokerage.service.MarketDataService;
+import com.stockbrokerage.symbols.SymbolRegistry;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.kafka.annotation.KafkaListener;
-import org.springframework.kafka.core.KafkaTemplate;
 import org.springframework.stereotype.Service;
 
 import java.math.BigDecimal;
-import java.time.LocalDateTime;
-import java.util.Optional;
-import java.util.UUID;
+import java.util.List;
 
+/**
+ * Feeds order events and market ticks into the {@link OrderSequencer}. Matching, persistence and
+ * trade publishing all happen downstream on the owning shard's threads.
+ *
+ * order-events and market-data are both keyed by symbolId and read in one consumer group with the
+ * same partition count, so each consumer is assigned a disjoint set of symbols and gets every
+ * placement, cancel and tick for them in the order they were published. Orders resting on one
+ * instance never miss the ticks that would trigger them on another.
+ */
 @Service
 @RequiredArgsConstructor
 @Slf4j
 public class OrderEventConsumer {
-    
-    private final OrderRepository orderRepository;
-    private final SymbolRepository symbolRepository;
+
+    private static final String CONSUMER = "order-processing";
+
+    private final SymbolRegistry symbolRegistry;
     private final MarketDataService marketDataService;
-    private final KafkaTemplate<String, Object> kafkaTemplate;
-    
-    @KafkaListener(topics = "order-events", groupId = "order-processing-group")
-    public void processOrderEvent(OrderPlacedEvent event) {
+    private final OrderSequencer orderSequencer;
+    private final PipelineMetrics pipelineMetrics;
+    private final ProcessedEvents processedEvents;
+
+    @KafkaListener(topics = {"order-events", "market-data"}, groupId = "order-processing-group",
+            containerFactory = "matchingListenerContainerFactory")
+    public void process(List<Object> events) {
+        for (Object event : events) {
+            if (event instanceof MarketDataEvent tick) {
+                processMarketTick(tick);
+            } else {
+                processOrderEvent(event);
+            }
+        }
+    }
+
+    private void processOrderEvent(Object event) {
+        if (event instanceof OrderCancelledEvent cancelled) {
+            // Cancels are idempotent in the book, so redeliveries need no check
+            orderSequencer.cancel(cancelled.getSymbolId(), symbolRegistry.ordinal(cancelled.getSymbolId()),
+                    cancelled.getOrderId());
+        } else if (event instanceof OrderPlacedEvent placed) {
+            processOrderPlaced(placed);
+        } else {
+            log.warn("Ignoring unknown order event: {}", event);
+        }
+    }
+
+    private void processOrderPlaced(OrderPlacedEvent event) {
         try {
             log.info("Processing order event: {}", event.getOrderId());
-            
-            // Get the order from database
-            Optional<Order> orderOpt = orderRepository.findById(event.getOrderId());
-            if (orderOpt.isEmpty()) {
-                log.error("Order not found: {}", event.getOrderId());
+            pipelineMetrics.recordSince(PipelineMetrics.HOP_ORDER_EVENT, event.getCreatedAt());
+
+            // A redelivered order may already have filled and left the book, where the shard could
+            // no longer recognise it as a duplicate
+            if (processedEvents.isProcessed(CONSUMER, event.getOrderId())) {
+                log.info("Skipping order event already processed: {}", event.getOrderId());
                 return;
             }
-            
-            Order order = orderOpt.get();
-            
-            // Get symbol information
-            Optional<Symbol> symbolOpt = symbolRepository.findById(event.getSymbolId());
-            if (symbolOpt.isEmpty()) {
+
+            // Resolved once here; everything downstream finds the symbol by its ordinal
+            int ordinal = symbolRegistry.ordinal(event.getSymbolId());
+            if (ordinal < 0) {
                 log.error("Symbol not found: {}", event.getSymbolId());
                 return;
             }
-            
-            Symbol symbol = symbolOpt.get();
-            
-            // Execute trade based on order type
-            executeOrder(order, symbol);
-            
+            // Events published before the ticker was added to OrderPlacedEvent need a lookup
+            String ticker = event.getSymbol() != null ? event.getSymbol() : symbolRegistry.get(ordinal).getSymbol();
+
+            BigDecimal currentPrice = marketDataService.getLastPrice(ordinal);
+            orderSequencer.submit(event, ordinal, ticker, currentPrice);
+            processedEvents.markProcessed(CONSUMER, List.of(event.getOrderId()));
+
         } catch (Exception e) {
             log.error("Error processing order event", e);
         }
     }
-    
-    private void executeOrder(Order order, Symbol symbol) {
+
+    // Every tick is sequenced, in order: matching uses each tick's volume, not just the last price
+    private void processMarketTick(MarketDataEvent event) {
         try {
-            BigDecimal executionPrice = getExecutionPrice(order, symbol);
-            
-            if (executionPrice == null) {
-                log.warn("Could not determine execution price for order: {}", order.getId());
+            int ordinal = symbolRegistry.ordinal(event.getSymbolId());
+            if (ordinal < 0) {
                 return;
             }
-            
-            // Update order status
-            order.setStatus(Order.OrderStatus.FILLED);
-            order.setFilledQuantity(order.getQuantity());
-            order.setFilledPrice(executionPrice);
-            order.setFilledAt(LocalDateTime.now());
-            
-            orderRepository.save(order);
-            
-            // Calculate total value and fees
-            BigDecimal totalValue = executionPrice.multiply(BigDecimal.valueOf(order.getQuantity()));
-            
-            // Publish trade executed event
-            TradeExecutedEvent tradeEvent = TradeExecutedEvent.builder()
-                    .tradeId(UUID.randomUUID().toString())
-                    .orderId(order.getId())
-                    .userId(order.getUserId())
-                    .symbolId(order.getSymbolId())
-                    .symbol(symbol.getSymbol())
-                    .side(order.getSide())
-                    .quantity(order.getQuantity())
-                    .executionPrice(executionPrice)
-                    .totalValue(totalValue)
-                    .fees(order.getFees())
-                    .executedAt(LocalDateTime.now())
-                    .build();
-            
-            kafkaTemplate.send("trade-events", tradeEvent);
-            
-            log.info("Order executed successfully: {} at price: {}", order.getId(), executionPrice);
-            
+            orderSequencer.onMarketTick(event.getSymbolId(), ordinal, event.getSymbol(), event.getPrice(),
+                    event.getVolume());
         } catch (Exception e) {
-            log.error("Error executing order: {}", order.getId(), e);
-            
-            // Mark order as rejected on error
-            order.setStatus(Order.OrderStatus.REJECTED);
-            orderRepository.save(order);
-        }
-    }
-    
-    private BigDecimal getExecutionPrice(Order order, Symbol symbol) {
-        if (order.getOrderType() == Order.OrderType.MARKET) {
-            // For market orders, use current market price
-            return marketDataService.getCurrentPrice(symbol.getId());
-        } else if (order.getOrderType() == Order.OrderType.LIMIT) {
-            // For limit orders, check if limit price can be executed
-            BigDecimal currentPrice = marketDataService.getCurrentPrice(symbol.getId());
-            if (currentPrice != null) {
-                if (order.getSide() == Order.OrderSide.BUY && currentPrice.compareTo(order.getPrice()) <= 0) {
-                    return order.getPrice();
-                } else if (order.getSide() == Order.OrderSide.SELL && currentPrice.compareTo(order.getPrice()) >= 0) {
-                    return order.getPrice();
-                }
-            }
+            log.error("Error sequencing market tick for symbol: {}", event.getSymbol(), e);
         }
-        
-        return null; // Cannot execute at this time
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,207 @@
+package com.stockbrokerage.kafka;
+
+import com.stockbrokerage.entity.Order;
+import com.stockbrokerage.entity.OutboxDocument;
+import com.stockbrokerage.entity.OutboxMessage;
+import com.stockbrokerage.entity.Transaction;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.bson.Document;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.kafka.core.KafkaTemplate;
+import org.springframework.kafka.support.SendResult;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Publishes the outbox messages that documents carry (see {@link OutboxDocument}).
+ *
+ * Writers hand each document to the relay once it is stored, and one relay thread publishes them in
+ * hand-off order, in batches of up to {@code app.outbox.batch-size}: a batch is sent, its acks
+ * awaited together, and the relayed messages removed from their documents with one update per
+ * collection. Nothing on the request path waits for Kafka. Messages whose hand-off was lost, to
+ * a crash or a failed send, are picked up from Mongo once older than
+ * {@code app.outbox.stale-after-ms}. Delivery is at least once; consumers skip repeats.
+ */
+@Component
+@RequiredArgsConstructor
+@Slf4j
+public class OutboxRelay {
+
+    private static final List<Class<? extends OutboxDocument>> SOURCES = List.of(Order.class, Transaction.class);
+
+    @Value("${app.outbox.batch-size:500}")
+    private int batchSize;
+
+    @Value("${app.outbox.stale-after-ms:5000}")
+    private long staleAfterMs;
+
+    private final KafkaTemplate<String, Object> kafkaTemplate;
+    private final MongoTemplate mongoTemplate;
+
+    private final LinkedBlockingQueue<OutboxDocument> queue = new LinkedBlockingQueue<>();
+    // Documents queued or being relayed, so a sweep does not queue them twice
+    private final Set<String> inFlight = ConcurrentHashMap.newKeySet();
+    // Documents handed over again while in flight, e.g. an order cancelled as it is being relayed
+    private final Map<String, OutboxDocument> handedOverAgain = new ConcurrentHashMap<>();
+    private volatile boolean running = true;
+    private Thread relay;
+
+    public static OutboxMessage message(String topic, String key, Object payload) {
+        return OutboxMessage.builder()
+                .topic(topic)
+                .key(key)
+                .payload(payload)
+                .createdAt(LocalDateTime.now())
+                .build();
+    }
+
+    /** Queues the outbox of a document that has just been written. */
+    public void relay(OutboxDocument document) {
+        if (document.getOutbox() == null || document.getOutbox().isEmpty()) {
+            return;
+        }
+        String key = inFlightKey(document);
+        if (inFlight.add(key)) {
+            queue.add(document);
+        } else {
+            // Queued again once the current relay is done; if that was just missed, the sweep has it
+            handedOverAgain.put(key, document);
+        }
+    }
+
+    @PostConstruct
+    public void start() {
+        relay = new Thread(this::run, "outbox-relay");
+        relay.setDaemon(true);
+        relay.start();
+    }
+
+    @PreDestroy
+    public void stop() throws InterruptedException {
+        running = false;
+        relay.join(TimeUnit.SECONDS.toMillis(10));
+    }
+
+    /** Queues messages that are still in Mongo well after their write. */
+    @Scheduled(fixedDelayString = "${app.outbox.sweep-interval-ms:5000}")
+    public void sweep() {
+        LocalDateTime cutoff = LocalDateTime.now().minusNanos(TimeUnit.MILLISECONDS.toNanos(staleAfterMs));
+        for (Class<? extends OutboxDocument> source : SOURCES) {
+            Query query = Query.query(Criteria.where("outbox.createdAt").lt(cutoff))
+                    .with(Sort.by("outbox.createdAt"))
+                    .limit(batchSize);
+            query.fields().include("outbox");
+            List<? extends OutboxDocument> stale = mongoTemplate.find(query, source);
+            if (!stale.isEmpty()) {
+                log.warn("Relaying {} stale outbox documents from {}", stale.size(), source.getSimpleName());
+                stale.forEach(this::relay);
+            }
+        }
+    }
+
+    private void run() {
+        List<OutboxDocument> batch = new ArrayList<>(batchSize);
+        // Drains what is queued at shutdown before stopping
+        while (running || !queue.isEmpty()) {
+            try {
+                OutboxDocument first = queue.poll(100, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+                queue.drainTo(batch, batchSize - 1);
+                publish(batch);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (Exception e) {
+                // Left in Mongo, so the sweep retries them
+                log.error("Error relaying {} outbox documents", batch.size(), e);
+            } finally {
+                for (OutboxDocument document : batch) {
+                    String key = inFlightKey(document);
+                    inFlight.remove(key);
+                    OutboxDocument again = handedOverAgain.remove(key);
+                    if (again != null) {
+                        relay(again);
+                    }
+                }
+                batch.clear();
+            }
+        }
+    }
+
+    private void publish(List<OutboxDocument> batch) throws InterruptedException {
+        List<List<CompletableFuture<SendResult<String, Object>>>> sends = new ArrayList<>(batch.size());
+        for (OutboxDocument document : batch) {
+            List<CompletableFuture<SendResult<String, Object>>> documentSends = new ArrayList<>();
+            for (OutboxMessage message : document.getOutbox()) {
+                documentSends.add(kafkaTemplate.send(message.getTopic(), message.getKey(), message.getPayload()));
+            }
+            sends.add(documentSends);
+        }
+
+        Map<Class<?>, List<OutboxDocument>> relayed = new HashMap<>();
+        for (int i = 0; i < batch.size(); i++) {
+            OutboxDocument document = batch.get(i);
+            try {
+                for (CompletableFuture<SendResult<String, Object>> send : sends.get(i)) {
+                    send.get(30, TimeUnit.SECONDS);
+                }
+                relayed.computeIfAbsent(document.getClass(), c -> new ArrayList<>()).add(document);
+            } catch (InterruptedException e) {
+                throw e;
+            } catch (Exception e) {
+                log.error("Failed to relay outbox of {} {}", document.getClass().getSimpleName(), document.getId(), e);
+            }
+        }
+        relayed.forEach(this::remove);
+    }
+
+    /**
+     * Removes relayed messages from their documents. Only those created up to the last one relayed
+     * are pulled, since a message may have been added to the document meanwhile (a cancel to an
+     * order); the outbox itself is dropped once empty.
+     */
+    private void remove(Class<?> source, List<OutboxDocument> documents) {
+        BulkOperations bulk = mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, source);
+        List<String> ids = new ArrayList<>(documents.size());
+        for (OutboxDocument document : documents) {
+            LocalDateTime last = document.getOutbox().stream()
+                    .map(OutboxMessage::getCreatedAt)
+                    .max(Comparator.naturalOrder())
+                    .orElseThrow();
+            bulk.updateOne(Query.query(Criteria.where("_id").is(document.getId())),
+                    new Update().pull("outbox", new Document("createdAt", new Document("$lte", last))));
+            ids.add(document.getId());
+        }
+        bulk.execute();
+        mongoTemplate.updateMulti(Query.query(Criteria.where("_id").in(ids).and("outbox").size(0)),
+                new Update().unset("outbox"), source);
+    }
+
+    private static String inFlightKey(OutboxDocument document) {
+        return document.getClass().getSimpleName() + ":" + document.getId();
+    }
+}
@@ -1,6 +1,7 @@
 package com.stockbrokerage.kafka;
 
 import com.stockbrokerage.events.PortfolioUpdateEvent;
+import com.stockbrokerage.metrics.PipelineMetrics;
 import com.stockbrokerage.websocket.MarketDataWebSocketHandler;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
@@ -16,11 +17,15 @@ import java.util.Map;
 public class PortfolioUpdateConsumer {
     
     private final MarketDataWebSocketHandler webSocketHandler;
+    private final PipelineMetrics pipelineMetrics;
     
-    @KafkaListener(topics = "portfolio-updates", groupId = "websocket-notification-group")
+    @KafkaListener(topics = "portfolio-updates", groupId = "websocket-notification-group",
+            containerFactory = "portfolioUpdateListenerContainerFactory")
     public void processPortfolioUpdate(PortfolioUpdateEvent event) {
         try {
             log.info("Processing portfolio update for user: {}", event.getUserId());
+            pipelineMetrics.recordSince(PipelineMetrics.HOP_PORTFOLIO_UPDATE, event.getCreatedAt());
+            pipelineMetrics.recordSince(PipelineMetrics.HOP_END_TO_END, event.getOrderPlacedAt());
             
             // Create WebSocket message
             Map<String, Object> message = new HashMap<>();
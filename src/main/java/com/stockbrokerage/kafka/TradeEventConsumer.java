@@ -1,66 +1,110 @@
 package com.stockbrokerage.kafka;
 
 import com.stockbrokerage.entity.Holding;
+import com.stockbrokerage.entity.Order;
 import com.stockbrokerage.entity.Trade;
 import com.stockbrokerage.entity.Transaction;
-import com.stockbrokerage.entity.Wallet;
 import com.stockbrokerage.events.PortfolioUpdateEvent;
 import com.stockbrokerage.events.TradeExecutedEvent;
-import com.stockbrokerage.repository.HoldingRepository;
+import com.stockbrokerage.idempotency.ProcessedEvents;
+import com.stockbrokerage.metrics.PipelineMetrics;
+import com.stockbrokerage.repository.HoldingUpdates;
 import com.stockbrokerage.repository.TransactionRepository;
-import com.stockbrokerage.repository.WalletRepository;
+import com.stockbrokerage.risk.AccountStateCache;
+import com.stockbrokerage.service.TradeService;
+import com.stockbrokerage.valuation.ValuationEngine;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
 import org.springframework.kafka.annotation.KafkaListener;
-import org.springframework.kafka.core.KafkaTemplate;
 import org.springframework.stereotype.Service;
-import org.springframework.transaction.annotation.Transactional;
 
 import java.math.BigDecimal;
 import java.time.LocalDateTime;
-import java.util.Optional;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 
 @Service
 @RequiredArgsConstructor
 @Slf4j
 public class TradeEventConsumer {
     
-    private final HoldingRepository holdingRepository;
-    private final WalletRepository walletRepository;
+    private static final String CONSUMER = "trade-settlement";
+    
+    private final AccountStateCache accountStateCache;
     private final TransactionRepository transactionRepository;
-    private final KafkaTemplate<String, Object> kafkaTemplate;
+    private final TradeService tradeService;
+    private final MongoTemplate mongoTemplate;
+    private final OutboxRelay outboxRelay;
+    private final PipelineMetrics pipelineMetrics;
+    private final ProcessedEvents processedEvents;
+    private final ValuationEngine valuationEngine;
     
-    @KafkaListener(topics = "trade-events", groupId = "portfolio-update-group")
-    @Transactional
-    public void processTradeEvent(TradeExecutedEvent event) {
+    /**
+     * Settles a poll's worth of trade events together: fills are grouped per holding and folded in
+     * arrival order, then written with one transactions insert (carrying the portfolio update
+     * events), one bulk holdings write and one trades insert, so a batch costs a few round trips
+     * however many events it holds. The batch's wallet changes are written before its events are
+     * marked settled, so a redelivery skipped as settled never drops cash that was only in memory.
+     */
+    @KafkaListener(topics = "trade-events", groupId = "portfolio-update-group",
+            containerFactory = "tradeEventListenerContainerFactory")
+    public void processTradeEvents(List<TradeExecutedEvent> delivered) {
+        // Events redelivered after a rebalance or restart were settled already
+        List<TradeExecutedEvent> events = processedEvents.filterNew(CONSUMER, delivered, TradeExecutedEvent::getTradeId);
+        if (events.size() < delivered.size()) {
+            log.info("Skipping {} trade events already settled", delivered.size() - events.size());
+        }
+        if (events.isEmpty()) {
+            return;
+        }
+        log.info("Processing batch of {} trade events", events.size());
+        LocalDateTime received = LocalDateTime.now();
+        for (TradeExecutedEvent event : events) {
+            pipelineMetrics.recordSince(PipelineMetrics.HOP_TRADE_EVENT, event.getExecutedAt());
+        }
+
+        // Wallets and positions first: the account state cache writes wallets back itself
+        List<AccountStateCache.Fill> fills = events.stream().map(this::toFill).toList();
+        accountStateCache.applyTrades(fills);
+        valuationEngine.applyTrades(events);
+        List<String> userIds = events.stream().map(TradeExecutedEvent::getUserId).distinct().toList();
+        // Each transaction carries its portfolio update event, stored by the same insert
+        List<Transaction> transactions = List.of();
         try {
-            log.info("Processing trade event: {} for user: {}", event.getTradeId(), event.getUserId());
-            
-            // Create trade record
-            createTradeRecord(event);
-            
-            // Update holdings
-            updateHoldings(event);
-            
-            // Update wallet balance
-            updateWalletBalance(event);
-            
-            // Create transaction record
-            createTransactionRecord(event);
-            
-            // Publish portfolio update event
-            publishPortfolioUpdateEvent(event);
-            
-            log.info("Trade processed successfully: {}", event.getTradeId());
-            
+            transactions = transactionRepository.insert(events.stream().map(this::createTransactionRecord).toList());
+            updateHoldings(events);
+            // Last, so a failed batch leaves nothing on the tape that its redelivery would tape again
+            tradeService.record(events.stream().map(this::createTradeRecord).toList());
+            // The batch's cash must be stored before it is marked settled, or a crash would lose it
+            accountStateCache.flush(userIds);
         } catch (Exception e) {
-            log.error("Error processing trade event: {}", event.getTradeId(), e);
-            throw e; // Re-throw to trigger transaction rollback
+            log.error("Error settling batch of {} trade events", events.size(), e);
+            accountStateCache.revertTrades(fills);
+            valuationEngine.evict(userIds);
+            // Their portfolio updates must not go out for a batch that is redelivered
+            if (!transactions.isEmpty()) {
+                transactionRepository.deleteAll(transactions);
+            }
+            throw e; // Re-throw so the batch is redelivered
         }
+        // Stored before the offset is committed: wallets would be settled twice on a redelivery
+        processedEvents.markProcessedNow(CONSUMER, events.stream().map(TradeExecutedEvent::getTradeId).toList());
+
+        transactions.forEach(outboxRelay::relay);
+        for (TradeExecutedEvent event : events) {
+            pipelineMetrics.recordSince(PipelineMetrics.HOP_SETTLEMENT, received);
+        }
+        log.info("Settled batch of {} trade events", events.size());
     }
     
-    private void createTradeRecord(TradeExecutedEvent event) {
-        Trade trade = Trade.builder()
+    private Trade createTradeRecord(TradeExecutedEvent event) {
+        return Trade.builder()
                 .id(event.getTradeId())
                 .orderId(event.getOrderId())
                 .userId(event.getUserId())
@@ -70,94 +114,73 @@ public class TradeEventConsumer {
                 .price(event.getExecutionPrice())
                 .totalValue(event.getTotalValue())
                 .fees(event.getFees())
-                .executedAt(event.getExecutedAt())
+                .executedAt(event.getExecutedAt() != null ? event.getExecutedAt() : LocalDateTime.now())
                 .build();
-        
-        // Note: You would save this to a Trade repository if it exists
-        log.debug("Trade record created: {}", trade.getId());
     }
     
-    private void updateHoldings(TradeExecutedEvent event) {
-        Optional<Holding> existingHolding = holdingRepository
-                .findByUserIdAndSymbolId(event.getUserId(), event.getSymbolId());
-        
-        if (event.getSide() == com.stockbrokerage.entity.Order.OrderSide.BUY) {
-            // Buy order - increase holdings
-            if (existingHolding.isPresent()) {
-                Holding holding = existingHolding.get();
-                Long newQuantity = holding.getQuantity() + event.getQuantity();
-                BigDecimal newTotalCost = holding.getTotalCost().add(event.getTotalValue());
-                BigDecimal newAveragePrice = newTotalCost.divide(BigDecimal.valueOf(newQuantity), 2, 
-                    java.math.RoundingMode.HALF_UP);
-                
-                holding.setQuantity(newQuantity);
-                holding.setAveragePrice(newAveragePrice);
-                holding.setTotalCost(newTotalCost);
-                holding.setUpdatedAt(LocalDateTime.now());
-                
-                holdingRepository.save(holding);
-            } else {
-                // Create new holding
-                Holding holding = Holding.builder()
-                        .userId(event.getUserId())
-                        .symbolId(event.getSymbolId())
-                        .quantity(event.getQuantity())
-                        .averagePrice(event.getExecutionPrice())
-                        .totalCost(event.getTotalValue())
-                        .createdAt(LocalDateTime.now())
-                        .updatedAt(LocalDateTime.now())
-                        .build();
-                
-                holdingRepository.save(holding);
-            }
-        } else {
-            // Sell order - decrease holdings
-            if (existingHolding.isPresent()) {
-                Holding holding = existingHolding.get();
-                Long newQuantity = holding.getQuantity() - event.getQuantity();
-                
-                if (newQuantity > 0) {
-                    BigDecimal soldCost = holding.getAveragePrice().multiply(BigDecimal.valueOf(event.getQuantity()));
-                    holding.setQuantity(newQuantity);
-                    holding.setTotalCost(holding.getTotalCost().subtract(soldCost));
-                    holding.setUpdatedAt(LocalDateTime.now());
-                    
-                    holdingRepository.save(holding);
+    private void updateHoldings(List<TradeExecutedEvent> events) {
+        Map<String, List<TradeExecutedEvent>> byHolding = new LinkedHashMap<>();
+        for (TradeExecutedEvent event : events) {
+            byHolding.computeIfAbsent(holdingKey(event.getUserId(), event.getSymbolId()), k -> new ArrayList<>()).add(event);
+        }
+
+        // Ordered, so the runs of one holding apply in arrival order
+        BulkOperations bulk = mongoTemplate.bulkOps(BulkOperations.BulkMode.ORDERED, Holding.class);
+        for (List<TradeExecutedEvent> fills : byHolding.values()) {
+            TradeExecutedEvent first = fills.get(0);
+            Query query = Query.query(Criteria.where("userId").is(first.getUserId())
+                    .and("symbolId").is(first.getSymbolId()));
+            // Consecutive fills on the same side fold into one update: buys only re-derive the
+            // average price from the totals and sells leave it unchanged. Each update skips the
+            // fills the holding already applied, so a redelivered batch is not counted twice
+            int start = 0;
+            while (start < fills.size()) {
+                Order.OrderSide side = fills.get(start).getSide();
+                List<HoldingUpdates.Fill> run = new ArrayList<>();
+                int end = start;
+                for (; end < fills.size() && fills.get(end).getSide() == side; end++) {
+                    TradeExecutedEvent fill = fills.get(end);
+                    run.add(new HoldingUpdates.Fill(fill.getTradeId(), fill.getQuantity(), fill.getTotalValue()));
+                }
+                if (side == Order.OrderSide.BUY) {
+                    bulk.upsert(query, HoldingUpdates.buy(run));
                 } else {
+                    bulk.updateOne(query, HoldingUpdates.sell(run));
                     // Remove holding if quantity becomes zero or negative
-                    holdingRepository.delete(holding);
+                    bulk.remove(Query.query(Criteria.where("userId").is(first.getUserId())
+                            .and("symbolId").is(first.getSymbolId()).and("quantity").lte(0)));
                 }
+                start = end;
             }
         }
+        bulk.execute();
+    }
+
+    private static String holdingKey(String userId, String symbolId) {
+        return userId + ":" + symbolId;
     }
     
-    private void updateWalletBalance(TradeExecutedEvent event) {
-        Optional<Wallet> walletOpt = walletRepository.findByUserId(event.getUserId());
-        
-        if (walletOpt.isPresent()) {
-            Wallet wallet = walletOpt.get();
-            BigDecimal balanceChange;
-            
-            if (event.getSide() == com.stockbrokerage.entity.Order.OrderSide.BUY) {
-                // Buy order - decrease balance (amount + fees)
-                balanceChange = event.getTotalValue().add(event.getFees()).negate();
-            } else {
-                // Sell order - increase balance (amount - fees)
-                balanceChange = event.getTotalValue().subtract(event.getFees());
-            }
-            
-            wallet.setBalance(wallet.getBalance().add(balanceChange));
-            wallet.setUpdatedAt(LocalDateTime.now());
-            
-            walletRepository.save(wallet);
+    private AccountStateCache.Fill toFill(TradeExecutedEvent event) {
+        BigDecimal balanceChange;
+        if (event.getSide() == Order.OrderSide.BUY) {
+            // Buy order - decrease balance (amount + fees)
+            balanceChange = event.getTotalValue().add(event.getFees()).negate();
+        } else {
+            // Sell order - increase balance (amount - fees)
+            balanceChange = event.getTotalValue().subtract(event.getFees());
         }
+        
+        // Debit the fill and release the funds its order locked for it in one wallet change
+        BigDecimal released = event.getReleasedAmount() != null ? event.getReleasedAmount() : BigDecimal.ZERO;
+        return new AccountStateCache.Fill(event.getTradeId(), event.getUserId(), event.getSymbolId(), event.getSide(), event.getQuantity(),
+                balanceChange, released);
     }
     
-    private void createTransactionRecord(TradeExecutedEvent event) {
-        String transactionType = event.getSide() == com.stockbrokerage.entity.Order.OrderSide.BUY ? 
+    private Transaction createTransactionRecord(TradeExecutedEvent event) {
+        String transactionType = event.getSide() == Order.OrderSide.BUY ? 
                 "STOCK_PURCHASE" : "STOCK_SALE";
         
-        Transaction transaction = Transaction.builder()
+        return Transaction.builder()
                 .userId(event.getUserId())
                 .type(Transaction.TransactionType.valueOf(transactionType))
                 .amount(event.getTotalValue())
@@ -165,25 +188,24 @@ public class TradeEventConsumer {
                 .status(Transaction.TransactionStatus.COMPLETED)
                 .description("Trade execution for " + event.getSymbol())
                 .referenceId(event.getTradeId())
+                .outbox(List.of(OutboxRelay.message("portfolio-updates", null, createPortfolioUpdateEvent(event))))
                 .build();
-        
-        transactionRepository.save(transaction);
     }
     
-    private void publishPortfolioUpdateEvent(TradeExecutedEvent event) {
-        PortfolioUpdateEvent portfolioEvent = PortfolioUpdateEvent.builder()
+    private PortfolioUpdateEvent createPortfolioUpdateEvent(TradeExecutedEvent event) {
+        return PortfolioUpdateEvent.builder()
                 .userId(event.getUserId())
                 .symbolId(event.getSymbolId())
                 .symbol(event.getSymbol())
                 .eventType("TRADE_EXECUTED")
-                .quantityChange(event.getSide() == com.stockbrokerage.entity.Order.OrderSide.BUY ? 
+                .quantityChange(event.getSide() == Order.OrderSide.BUY ? 
                         event.getQuantity() : -event.getQuantity())
-                .balanceChange(event.getSide() == com.stockbrokerage.entity.Order.OrderSide.BUY ? 
+                .balanceChange(event.getSide() == Order.OrderSide.BUY ? 
                         event.getTotalValue().add(event.getFees()).negate() : 
                         event.getTotalValue().subtract(event.getFees()))
                 .timestamp(event.getExecutedAt())
+                .createdAt(LocalDateTime.now())
+                .orderPlacedAt(event.getOrderPlacedAt())
                 .build();
-        
-        kafkaTemplate.send("portfolio-updates", portfolioEvent);
     }
 }
\ No newline at end of file
@@ -0,0 +1,130 @@
+package com.stockbrokerage.ledger;
+
+import com.mongodb.MongoBulkWriteException;
+import com.stockbrokerage.entity.LedgerEntry;
+import com.stockbrokerage.entity.LedgerSnapshot;
+import com.stockbrokerage.risk.AccountState;
+import jakarta.annotation.PreDestroy;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.bson.types.Decimal128;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.BulkOperationException;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.stereotype.Component;
+
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Appends account cash changes to the ledger. Entries are numbered by {@link AccountState} as the
+ * change happens and written in bulk by {@link com.stockbrokerage.risk.AccountStateCache}'s flush,
+ * ahead of the wallet changes they describe, so a wallet change is never stored without its entry.
+ * A crash between the two writes leaves entries whose wallet change was lost; the account's next
+ * load brings the ledger back in line with the wallet through an adjustment. Every
+ * {@code app.ledger.snapshot-every}-th entry of an account also materializes a snapshot of its
+ * balances, so a balance is rebuilt from the latest snapshot and a short tail of entries.
+ */
+@Component
+@RequiredArgsConstructor
+@Slf4j
+public class AccountLedger {
+
+    private static final int DUPLICATE_KEY = 11000;
+
+    @Value("${app.ledger.snapshot-every:100}")
+    private long snapshotEvery;
+
+    private final MongoTemplate mongoTemplate;
+
+    private final ConcurrentLinkedQueue<LedgerEntry> unwritten = new ConcurrentLinkedQueue<>();
+
+    public void append(String userId, LedgerEntry.EntryType type, String reference,
+                       BigDecimal balanceChange, BigDecimal lockedChange, AccountState.Funds after) {
+        unwritten.add(LedgerEntry.builder()
+                .userId(userId)
+                .sequence(after.sequence())
+                .type(type)
+                .balanceChange(balanceChange)
+                .lockedChange(lockedChange)
+                .balance(after.balance())
+                .lockedBalance(after.locked())
+                .reference(reference)
+                .createdAt(LocalDateTime.now())
+                .build());
+    }
+
+    /** The account's latest written entry, or null if it has none. */
+    public LedgerEntry lastEntry(String userId) {
+        Query query = Query.query(Criteria.where("userId").is(userId))
+                .with(Sort.by(Sort.Direction.DESC, "sequence"))
+                .limit(1);
+        return mongoTemplate.findOne(query, LedgerEntry.class);
+    }
+
+    /**
+     * Writes the entries appended so far, returning false if they could not be written and were
+     * queued again. Flushes run one at a time, so one that finds nothing to write returns only
+     * after a racing flush has written what it took.
+     */
+    public synchronized boolean flush() {
+        List<LedgerEntry> entries = new ArrayList<>();
+        for (LedgerEntry entry; (entry = unwritten.poll()) != null; ) {
+            entries.add(entry);
+        }
+        if (entries.isEmpty()) {
+            return true;
+        }
+
+        BulkOperations bulk = mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, LedgerEntry.class);
+        bulk.insert(entries);
+        BulkOperations snapshots = mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, LedgerSnapshot.class);
+        int snapshotCount = 0;
+        for (LedgerEntry entry : entries) {
+            if (entry.getSequence() % snapshotEvery == 0) {
+                snapshots.upsert(Query.query(Criteria.where("userId").is(entry.getUserId()).and("sequence").is(entry.getSequence())),
+                        new Update()
+                                .setOnInsert("balance", new Decimal128(entry.getBalance()))
+                                .setOnInsert("lockedBalance", new Decimal128(entry.getLockedBalance()))
+                                .setOnInsert("createdAt", entry.getCreatedAt()));
+                snapshotCount++;
+            }
+        }
+        try {
+            execute(bulk);
+            if (snapshotCount > 0) {
+                snapshots.execute();
+            }
+        } catch (RuntimeException e) {
+            // Retried whole: entries already written are skipped as duplicates, snapshots are upserts
+            entries.forEach(entry -> entry.setId(null));
+            unwritten.addAll(entries);
+            log.error("Error writing {} ledger entries, will retry", entries.size(), e);
+            return false;
+        }
+        return true;
+    }
+
+    @PreDestroy
+    public void close() {
+        flush();
+    }
+
+    private static void execute(BulkOperations bulk) {
+        try {
+            bulk.execute();
+        } catch (BulkOperationException e) {
+            if (!e.getErrors().stream().allMatch(error -> error.getCode() == DUPLICATE_KEY)) {
+                throw e;
+            }
+        }
+    }
+}
@@ -0,0 +1,84 @@
+package com.stockbrokerage.metrics;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+/**
+ * Latency timers for the order lifecycle, published with p50/p99/p999 and histogram buckets.
+ *
+ * <ul>
+ *   <li>{@code order.place}: a whole {@code placeOrder} call</li>
+ *   <li>{@code order.place.stage}: one step of it, tagged {@code stage}</li>
+ *   <li>{@code order.pipeline}: time from an event's creation to a point downstream, tagged
+ *       {@code hop}, following an order through order-events, matching, trade-events,
+ *       settlement and portfolio-updates. {@code time_to_fill} and {@code end_to_end} start at
+ *       order placement, so they include any time the order rested in the book.</li>
+ * </ul>
+ */
+@Component
+public class PipelineMetrics {
+
+    public static final String STAGE_USER_LOOKUP = "user_lookup";
+    public static final String STAGE_SYMBOL_LOOKUP = "symbol_lookup";
+    public static final String STAGE_VALIDATION = "validation";
+    public static final String STAGE_LOCK = "lock";
+    public static final String STAGE_SAVE = "save";
+    public static final String STAGE_OUTBOX = "outbox";
+
+    public static final String HOP_ORDER_EVENT = "order_event";
+    public static final String HOP_TIME_TO_FILL = "time_to_fill";
+    public static final String HOP_TRADE_EVENT = "trade_event";
+    public static final String HOP_SETTLEMENT = "settlement";
+    public static final String HOP_PORTFOLIO_UPDATE = "portfolio_update";
+    public static final String HOP_END_TO_END = "end_to_end";
+
+    private final MeterRegistry registry;
+    private final Timer placement;
+    private final Map<String, Timer> stages = new ConcurrentHashMap<>();
+    private final Map<String, Timer> hops = new ConcurrentHashMap<>();
+
+    public PipelineMetrics(MeterRegistry registry) {
+        this.registry = registry;
+        this.placement = timer("order.place", null, null);
+    }
+
+    public <T> T timePlacement(Supplier<T> placement) {
+        return this.placement.record(placement);
+    }
+
+    public <T> T timeStage(String stage, Supplier<T> step) {
+        return stages.computeIfAbsent(stage, s -> timer("order.place.stage", "stage", s)).record(step);
+    }
+
+    public void timeStage(String stage, Runnable step) {
+        stages.computeIfAbsent(stage, s -> timer("order.place.stage", "stage", s)).record(step);
+    }
+
+    /** Records the time since {@code start}, taken from an event; events without one are skipped. */
+    public void recordSince(String hop, LocalDateTime start) {
+        if (start == null) {
+            return;
+        }
+        Duration elapsed = Duration.between(start, LocalDateTime.now());
+        if (!elapsed.isNegative()) {
+            hops.computeIfAbsent(hop, h -> timer("order.pipeline", "hop", h)).record(elapsed);
+        }
+    }
+
+    private Timer timer(String name, String tagKey, String tagValue) {
+        Timer.Builder builder = Timer.builder(name)
+                .publishPercentiles(0.5, 0.99, 0.999)
+                .publishPercentileHistogram();
+        if (tagKey != null) {
+            builder.tag(tagKey, tagValue);
+        }
+        return builder.register(registry);
+    }
+}
@@ -0,0 +1,67 @@
+package com.stockbrokerage.reconciliation;
+
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.bson.types.ObjectId;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * End-of-day reconciliation: recomputes every account's positions from its fills on the trade tape
+ * and its cash from the account ledger, and checks them, and the trade transactions, against what
+ * is stored. Differences are written to {@code reconciliation_breaks} under the run's id.
+ *
+ * The userId space is cut into {@code app.reconciliation.shards} ranges, reconciled in parallel on
+ * a fork-join pool. Each range is a merge of cursors sorted by userId, one per collection, so
+ * memory holds one account at a time however many accounts there are. Run it after the close:
+ * changes still in flight while it runs can show up as breaks.
+ */
+@Component
+@RequiredArgsConstructor
+@Slf4j
+public class ReconciliationJob {
+
+    @Value("${app.reconciliation.shards:64}")
+    private int shards;
+
+    @Value("${app.reconciliation.parallelism:8}")
+    private int parallelism;
+
+    private final MongoTemplate mongoTemplate;
+
+    public record Report(String runId, long accounts, long breaks, Duration elapsed) {
+    }
+
+    @Scheduled(cron = "${app.reconciliation.cron:0 30 18 * * MON-FRI}")
+    public void scheduledRun() {
+        run();
+    }
+
+    public Report run() {
+        String runId = new ObjectId().toHexString();
+        long start = System.nanoTime();
+        LongAdder accounts = new LongAdder();
+        LongAdder breaks = new LongAdder();
+        int shardCount = UserShards.count(shards);
+        log.info("Reconciliation {} started over {} shards", runId, shardCount);
+
+        UserShards.forEach(parallelism, shardCount, shard -> {
+            try {
+                new ShardReconciler(mongoTemplate, runId, shard, shardCount, accounts, breaks).reconcile();
+            } catch (RuntimeException e) {
+                // One failed shard leaves the others' results standing
+                log.error("Reconciliation {} failed on shard {}", runId, shard, e);
+            }
+        });
+
+        Report report = new Report(runId, accounts.sum(), breaks.sum(), Duration.ofNanos(System.nanoTime() - start));
+        log.info("Reconciliation {} finished: {} accounts, {} breaks in {}", runId, report.accounts(),
+                report.breaks(), report.elapsed());
+        return report;
+    }
+}
@@ -0,0 +1,249 @@
+package com.stockbrokerage.reconciliation;
+
+import com.stockbrokerage.entity.Holding;
+import com.stockbrokerage.entity.LedgerEntry;
+import com.stockbrokerage.entity.Order;
+import com.stockbrokerage.entity.ReconciliationBreak;
+import com.stockbrokerage.entity.Trade;
+import com.stockbrokerage.entity.Transaction;
+import com.stockbrokerage.entity.Wallet;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+import java.util.stream.Stream;
+
+/**
+ * Reconciles the accounts of one userId range. Wallets, ledger entries, holdings, fills and trade
+ * transactions are each read through a cursor sorted by userId and merged, so an account's rows
+ * are consumed together and dropped before the next account's are read.
+ */
+class ShardReconciler {
+
+    private static final int CURSOR_BATCH = 1000;
+    private static final int BREAK_BATCH = 500;
+    private static final Sort BY_USER = Sort.by(Sort.Direction.ASC, "userId");
+
+    private final MongoTemplate mongoTemplate;
+    private final String runId;
+    private final Criteria range;
+    private final LongAdder accounts;
+    private final LongAdder breakCount;
+    private final List<ReconciliationBreak> breaks = new ArrayList<>();
+
+    ShardReconciler(MongoTemplate mongoTemplate, String runId, int shard, int shardCount,
+                    LongAdder accounts, LongAdder breakCount) {
+        this.mongoTemplate = mongoTemplate;
+        this.runId = runId;
+        this.range = UserShards.range(shard, shardCount);
+        this.accounts = accounts;
+        this.breakCount = breakCount;
+    }
+
+    void reconcile() {
+        try (Cursor<Wallet> wallets = open(Wallet.class, Wallet::getUserId, new Query(), BY_USER,
+                     "balance", "lockedBalance");
+             Cursor<LedgerEntry> ledger = open(LedgerEntry.class, LedgerEntry::getUserId, new Query(),
+                     Sort.by(Sort.Direction.ASC, "userId", "sequence"),
+                     "sequence", "balanceChange", "lockedChange", "balance", "lockedBalance");
+             Cursor<Holding> holdings = open(Holding.class, Holding::getUserId, new Query(), BY_USER,
+                     "symbolId", "quantity");
+             Cursor<Trade> trades = open(Trade.class, Trade::getUserId, new Query(), BY_USER,
+                     "symbolId", "side", "quantity", "totalValue", "fees");
+             Cursor<Transaction> transactions = open(Transaction.class, Transaction::getUserId,
+                     Query.query(Criteria.where("status").is(Transaction.TransactionStatus.COMPLETED)
+                             .and("type").in(Transaction.TransactionType.STOCK_PURCHASE, Transaction.TransactionType.STOCK_SALE)),
+                     BY_USER, "type", "amount", "fees")) {
+            
+            String userId;
+            while ((userId = min(wallets.peek(), ledger.peek(), holdings.peek(), trades.peek(), transactions.peek())) != null) {
+                reconcileCash(userId, wallets, ledger);
+                BigDecimal tradeCash = reconcilePositions(userId, holdings, trades);
+                reconcileTradeCash(userId, tradeCash, transactions);
+                accounts.increment();
+            }
+        }
+        writeBreaks();
+    }
+
+    /** Rebuilds the account's cash from its ledger, checking each entry follows from the last. */
+    private void reconcileCash(String userId, Cursor<Wallet> wallets, Cursor<LedgerEntry> ledger) {
+        BigDecimal balance = BigDecimal.ZERO;
+        BigDecimal locked = BigDecimal.ZERO;
+        long sequence = 0;
+        boolean chained = true;
+        while (ledger.has(userId)) {
+            LedgerEntry entry = ledger.next();
+            balance = balance.add(entry.getBalanceChange());
+            locked = locked.add(entry.getLockedChange());
+            // Only the first broken link is reported: every entry after it would repeat it
+            if (chained && (entry.getSequence() != sequence + 1
+                    || entry.getBalance().compareTo(balance) != 0 || entry.getLockedBalance().compareTo(locked) != 0)) {
+                addBreak(userId, ReconciliationBreak.BreakType.LEDGER, null, balance, entry.getBalance(),
+                        "Entry " + entry.getSequence() + " follows entry " + sequence);
+                chained = false;
+            }
+            sequence = entry.getSequence();
+        }
+
+        Wallet wallet = null;
+        while (wallets.has(userId)) {
+            wallet = wallets.next();
+        }
+        // Accounts open their ledger the first time they are used, so one without entries is not a break
+        if (sequence == 0) {
+            return;
+        }
+        if (wallet == null) {
+            addBreak(userId, ReconciliationBreak.BreakType.CASH, null, balance, null, "Ledger without a wallet");
+            return;
+        }
+        if (balance.compareTo(wallet.getBalance()) != 0) {
+            addBreak(userId, ReconciliationBreak.BreakType.CASH, null, balance, wallet.getBalance(), null);
+        }
+        if (locked.compareTo(wallet.getLockedBalance()) != 0) {
+            addBreak(userId, ReconciliationBreak.BreakType.LOCKED_CASH, null, locked, wallet.getLockedBalance(), null);
+        }
+    }
+
+    /** Nets the account's fills per symbol against its holdings; returns the cash the fills moved. */
+    private BigDecimal reconcilePositions(String userId, Cursor<Holding> holdings, Cursor<Trade> trades) {
+        Map<String, Long> traded = new HashMap<>();
+        BigDecimal cash = BigDecimal.ZERO;
+        while (trades.has(userId)) {
+            Trade trade = trades.next();
+            BigDecimal fees = orZero(trade.getFees());
+            if (trade.getSide() == Order.OrderSide.BUY) {
+                traded.merge(trade.getSymbolId(), trade.getQuantity(), Long::sum);
+                cash = cash.subtract(trade.getTotalValue().add(fees));
+            } else {
+                traded.merge(trade.getSymbolId(), -trade.getQuantity(), Long::sum);
+                cash = cash.add(trade.getTotalValue().subtract(fees));
+            }
+        }
+
+        while (holdings.has(userId)) {
+            Holding holding = holdings.next();
+            long expected = traded.getOrDefault(holding.getSymbolId(), 0L);
+            traded.remove(holding.getSymbolId());
+            if (holding.getQuantity() == null || holding.getQuantity() != expected) {
+                addBreak(userId, ReconciliationBreak.BreakType.POSITION, holding.getSymbolId(),
+                        BigDecimal.valueOf(expected), holding.getQuantity() != null ? BigDecimal.valueOf(holding.getQuantity()) : null, null);
+            }
+        }
+        // Settlement removes a holding once it is sold out, so only a non-zero net is missing one
+        traded.forEach((symbolId, expected) -> {
+            if (expected != 0) {
+                addBreak(userId, ReconciliationBreak.BreakType.POSITION, symbolId,
+                        BigDecimal.valueOf(expected), BigDecimal.ZERO, "No holding");
+            }
+        });
+        return cash;
+    }
+
+    private void reconcileTradeCash(String userId, BigDecimal tradeCash, Cursor<Transaction> transactions) {
+        BigDecimal booked = BigDecimal.ZERO;
+        while (transactions.has(userId)) {
+            Transaction transaction = transactions.next();
+            BigDecimal fees = orZero(transaction.getFees());
+            booked = transaction.getType() == Transaction.TransactionType.STOCK_PURCHASE
+                    ? booked.subtract(transaction.getAmount().add(fees))
+                    : booked.add(transaction.getAmount().subtract(fees));
+        }
+        if (booked.compareTo(tradeCash) != 0) {
+            addBreak(userId, ReconciliationBreak.BreakType.TRADE_CASH, null, tradeCash, booked, null);
+        }
+    }
+
+    private void addBreak(String userId, ReconciliationBreak.BreakType type, String symbolId,
+                          BigDecimal expected, BigDecimal actual, String detail) {
+        breaks.add(ReconciliationBreak.builder()
+                .runId(runId)
+                .userId(userId)
+                .type(type)
+                .symbolId(symbolId)
+                .expected(expected)
+                .actual(actual)
+                .detail(detail)
+                .createdAt(LocalDateTime.now())
+                .build());
+        breakCount.increment();
+        if (breaks.size() >= BREAK_BATCH) {
+            writeBreaks();
+        }
+    }
+
+    private void writeBreaks() {
+        if (!breaks.isEmpty()) {
+            mongoTemplate.insert(breaks, ReconciliationBreak.class);
+            breaks.clear();
+        }
+    }
+
+    private static BigDecimal orZero(BigDecimal value) {
+        return value != null ? value : BigDecimal.ZERO;
+    }
+
+    private static String min(String... userIds) {
+        String min = null;
+        for (String userId : userIds) {
+            if (userId != null && (min == null || userId.compareTo(min) < 0)) {
+                min = userId;
+            }
+        }
+        return min;
+    }
+
+    private <T> Cursor<T> open(Class<T> type, Function<T, String> userId, Query query, Sort sort, String... fields) {
+        query.addCriteria(range)
+                .with(sort)
+                .cursorBatchSize(CURSOR_BATCH);
+        query.fields().include("userId").include(fields);
+        return new Cursor<>(mongoTemplate.stream(query, type), userId);
+    }
+
+    /** A cursor that can look at the userId of its next row without consuming it. */
+    private static class Cursor<T> implements AutoCloseable {
+
+        private final Stream<T> stream;
+        private final Iterator<T> rows;
+        private final Function<T, String> userId;
+        private T next;
+
+        Cursor(Stream<T> stream, Function<T, String> userId) {
+            this.stream = stream;
+            this.rows = stream.iterator();
+            this.userId = userId;
+            this.next = rows.hasNext() ? rows.next() : null;
+        }
+
+        String peek() {
+            return next != null ? userId.apply(next) : null;
+        }
+
+        boolean has(String user) {
+            return next != null && user.equals(userId.apply(next));
+        }
+
+        T next() {
+            T current = next;
+            next = rows.hasNext() ? rows.next() : null;
+            return current;
+        }
+
+        @Override
+        public void close() {
+            stream.close();
+        }
+    }
+}
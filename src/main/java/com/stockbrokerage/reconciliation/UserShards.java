@@ -0,0 +1,73 @@
+package com.stockbrokerage.reconciliation;
+
+import org.springframework.data.mongodb.core.query.Criteria;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.IntConsumer;
+
+/**
+ * Cuts the userId space into contiguous ranges, on the first two characters of the hex ObjectId a
+ * userId is, so jobs over every account can work the ranges in parallel.
+ */
+public final class UserShards {
+
+    public static final int MAX_SHARDS = 256;
+
+    private UserShards() {
+    }
+
+    /** Shard counts outside 1..{@link #MAX_SHARDS} are clamped into it. */
+    public static int count(int shards) {
+        return Math.max(1, Math.min(shards, MAX_SHARDS));
+    }
+
+    /** The shard's userIds; the first and last ranges are open-ended, so every userId falls in one. */
+    public static Criteria range(int shard, int shardCount) {
+        Criteria criteria = Criteria.where("userId").gte(shard == 0 ? "" : bound(shard, shardCount));
+        return shard == shardCount - 1 ? criteria : criteria.lt(bound(shard + 1, shardCount));
+    }
+
+    /**
+     * Runs {@code work} for every shard below {@code shardCount} on a fork-join pool of
+     * {@code parallelism} threads, returning once all of them are done.
+     */
+    public static void forEach(int parallelism, int shardCount, IntConsumer work) {
+        ForkJoinPool pool = new ForkJoinPool(parallelism);
+        try {
+            pool.invoke(new Split(0, shardCount, work));
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    private static String bound(int shard, int shardCount) {
+        return String.format("%02x", shard * MAX_SHARDS / shardCount);
+    }
+
+    /** Splits a range of shards in halves down to single shards. */
+    private static final class Split extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final int from;
+        private final int to;
+        private final transient IntConsumer work;
+
+        Split(int from, int to, IntConsumer work) {
+            this.from = from;
+            this.to = to;
+            this.work = work;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from == 1) {
+                work.accept(from);
+                return;
+            }
+            int middle = (from + to) >>> 1;
+            invokeAll(new Split(from, middle, work), new Split(middle, to, work));
+        }
+    }
+}
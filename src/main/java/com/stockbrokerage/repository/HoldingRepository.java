@@ -8,7 +8,7 @@ import java.util.List;
 import java.util.Optional;
 
 @Repository
-public interface HoldingRepository extends MongoRepository<Holding, String> {
+public interface HoldingRepository extends MongoRepository<Holding, String>, HoldingRepositoryCustom {
     
     List<Holding> findByUserId(String userId);
     
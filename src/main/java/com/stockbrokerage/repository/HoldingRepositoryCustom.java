@@ -0,0 +1,11 @@
+package com.stockbrokerage.repository;
+
+import java.math.BigDecimal;
+
+/** Single-holding changes applied atomically in Mongo, see {@link HoldingUpdates}. */
+public interface HoldingRepositoryCustom {
+
+    void applyBuy(String userId, String symbolId, long quantity, BigDecimal cost);
+
+    void applySell(String userId, String symbolId, long quantity);
+}
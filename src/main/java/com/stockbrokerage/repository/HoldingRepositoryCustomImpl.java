@@ -0,0 +1,30 @@
+package com.stockbrokerage.repository;
+
+import com.stockbrokerage.entity.Holding;
+import lombok.RequiredArgsConstructor;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+
+import java.math.BigDecimal;
+
+@RequiredArgsConstructor
+public class HoldingRepositoryCustomImpl implements HoldingRepositoryCustom {
+
+    private final MongoTemplate mongoTemplate;
+
+    @Override
+    public void applyBuy(String userId, String symbolId, long quantity, BigDecimal cost) {
+        mongoTemplate.upsert(holding(userId, symbolId), HoldingUpdates.buy(quantity, cost), Holding.class);
+    }
+
+    @Override
+    public void applySell(String userId, String symbolId, long quantity) {
+        mongoTemplate.updateFirst(holding(userId, symbolId), HoldingUpdates.sell(quantity), Holding.class);
+        mongoTemplate.remove(holding(userId, symbolId).addCriteria(Criteria.where("quantity").lte(0)), Holding.class);
+    }
+
+    private static Query holding(String userId, String symbolId) {
+        return Query.query(Criteria.where("userId").is(userId).and("symbolId").is(symbolId));
+    }
+}
@@ -0,0 +1,114 @@
+package com.stockbrokerage.repository;
+
+import org.bson.Document;
+import org.bson.types.Decimal128;
+import org.springframework.data.mongodb.core.aggregation.AggregationOperation;
+import org.springframework.data.mongodb.core.aggregation.AggregationUpdate;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Holding changes as pipeline updates, computed by Mongo from the document's current values, so
+ * concurrent fills on one holding never overwrite each other. Amounts are Decimal128 server-side.
+ *
+ * Settlement applies fills through the {@link Fill} variants, which record each fill's trade id in
+ * the holding's {@code appliedTrades} in the same update and skip fills already recorded there, so
+ * a redelivered batch cannot apply a fill twice.
+ */
+public final class HoldingUpdates {
+
+    // Recent trade ids kept per holding; a redelivery comes within a few batches of the first attempt
+    private static final int APPLIED_TRADES_KEPT = 256;
+
+    /** A fill folded into a holding: its trade, shares and, for buys, their cost. */
+    public record Fill(String tradeId, long quantity, BigDecimal cost) {
+    }
+
+    private HoldingUpdates() {
+    }
+
+    /** {@link #buy(long, BigDecimal)} for the fills the holding has not applied yet. */
+    public static AggregationUpdate buy(List<Fill> fills) {
+        List<Object> quantities = new ArrayList<>();
+        List<Object> costs = new ArrayList<>();
+        quantities.add(ifNull("$quantity", 0L));
+        costs.add(ifNull("$totalCost", Decimal128.POSITIVE_ZERO));
+        for (Fill fill : fills) {
+            quantities.add(unlessApplied(fill.tradeId(), fill.quantity(), 0L));
+            costs.add(unlessApplied(fill.tradeId(), new Decimal128(fill.cost()), Decimal128.POSITIVE_ZERO));
+        }
+        return AggregationUpdate.from(List.of(
+                set(new Document("quantity", new Document("$add", quantities))
+                        .append("totalCost", new Document("$add", costs))
+                        .append("appliedTrades", applied(fills))
+                        .append("createdAt", ifNull("$createdAt", "$$NOW"))
+                        .append("updatedAt", "$$NOW")),
+                set(new Document("averagePrice", new Document("$round",
+                        List.of(new Document("$divide", List.of("$totalCost", "$quantity")), 2))))));
+    }
+
+    /** {@link #sell(long)} for the fills the holding has not applied yet. */
+    public static AggregationUpdate sell(List<Fill> fills) {
+        List<Object> quantities = new ArrayList<>();
+        for (Fill fill : fills) {
+            quantities.add(unlessApplied(fill.tradeId(), fill.quantity(), 0L));
+        }
+        Document sold = new Document("$add", quantities);
+        return AggregationUpdate.from(List.of(
+                set(new Document("totalCost", new Document("$subtract",
+                        List.of("$totalCost", new Document("$multiply", List.of("$averagePrice", sold)))))
+                        .append("quantity", new Document("$subtract", List.of("$quantity", sold)))
+                        .append("appliedTrades", applied(fills))
+                        .append("updatedAt", "$$NOW"))));
+    }
+
+    /** Adds bought shares at their cost and re-derives the average price; creates the holding when upserted. */
+    public static AggregationUpdate buy(long quantity, BigDecimal cost) {
+        return AggregationUpdate.from(List.of(
+                set(new Document("quantity", add(ifNull("$quantity", 0L), quantity))
+                        .append("totalCost", add(ifNull("$totalCost", Decimal128.POSITIVE_ZERO), new Decimal128(cost)))
+                        .append("createdAt", ifNull("$createdAt", "$$NOW"))
+                        .append("updatedAt", "$$NOW")),
+                set(new Document("averagePrice", new Document("$round",
+                        List.of(new Document("$divide", List.of("$totalCost", "$quantity")), 2))))));
+    }
+
+    /** Removes sold shares at the average price; the caller deletes holdings this empties. */
+    public static AggregationUpdate sell(long quantity) {
+        return AggregationUpdate.from(List.of(
+                set(new Document("totalCost", new Document("$subtract",
+                        List.of("$totalCost", new Document("$multiply", List.of("$averagePrice", quantity)))))
+                        .append("quantity", add("$quantity", -quantity))
+                        .append("updatedAt", "$$NOW"))));
+    }
+
+    private static Document unlessApplied(String tradeId, Object amount, Object zero) {
+        return new Document("$cond", List.of(
+                new Document("$in", List.of(tradeId, ifNull("$appliedTrades", List.of()))), zero, amount));
+    }
+
+    /** The holding's applied trade ids with the fills' appended, trimmed to the most recent. */
+    private static Document applied(List<Fill> fills) {
+        List<String> tradeIds = fills.stream().map(Fill::tradeId).toList();
+        Document added = new Document("$filter", new Document("input", tradeIds)
+                .append("cond", new Document("$not", List.of(
+                        new Document("$in", List.of("$$this", ifNull("$appliedTrades", List.of())))))));
+        return new Document("$slice", List.of(
+                new Document("$concatArrays", List.of(ifNull("$appliedTrades", List.of()), added)),
+                -Math.max(APPLIED_TRADES_KEPT, tradeIds.size())));
+    }
+
+    private static AggregationOperation set(Document fields) {
+        return context -> new Document("$set", fields);
+    }
+
+    private static Document add(Object value, Object amount) {
+        return new Document("$add", List.of(value, amount));
+    }
+
+    private static Document ifNull(String field, Object fallback) {
+        return new Document("$ifNull", List.of(field, fallback));
+    }
+}
@@ -10,7 +10,7 @@ import java.util.List;
 import java.util.Optional;
 
 @Repository
-public interface OrderRepository extends MongoRepository<Order, String> {
+public interface OrderRepository extends MongoRepository<Order, String>, OrderRepositoryCustom {
     
     Page<Order> findByUserIdOrderByPlacedAtDesc(String userId, Pageable pageable);
     
@@ -19,4 +19,6 @@ public interface OrderRepository extends MongoRepository<Order, String> {
     Optional<Order> findByIdAndUserId(String id, String userId);
     
     List<Order> findByStatusIn(List<Order.OrderStatus> statuses);
+    
+    List<Order> findByUserIdAndSideAndStatusIn(String userId, Order.OrderSide side, List<Order.OrderStatus> statuses);
 }
\ No newline at end of file
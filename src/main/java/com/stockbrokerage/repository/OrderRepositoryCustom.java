@@ -0,0 +1,15 @@
+package com.stockbrokerage.repository;
+
+import com.stockbrokerage.entity.Order;
+import com.stockbrokerage.entity.OutboxMessage;
+
+import java.util.Optional;
+
+public interface OrderRepositoryCustom {
+
+    /**
+     * Cancels an open order unless a fill was persisted since it was read, adding
+     * {@code cancellation} to its outbox in the same write. Returns the cancelled order.
+     */
+    Optional<Order> cancelIfUnchanged(String id, String userId, Long filledQuantity, OutboxMessage cancellation);
+}
@@ -0,0 +1,30 @@
+package com.stockbrokerage.repository;
+
+import com.stockbrokerage.entity.Order;
+import com.stockbrokerage.entity.OutboxMessage;
+import lombok.RequiredArgsConstructor;
+import org.springframework.data.mongodb.core.FindAndModifyOptions;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+
+import java.util.Optional;
+
+@RequiredArgsConstructor
+public class OrderRepositoryCustomImpl implements OrderRepositoryCustom {
+
+    private final MongoTemplate mongoTemplate;
+
+    @Override
+    public Optional<Order> cancelIfUnchanged(String id, String userId, Long filledQuantity, OutboxMessage cancellation) {
+        Query query = Query.query(Criteria.where("_id").is(id).and("userId").is(userId)
+                .and("status").in(Order.OrderStatus.PENDING, Order.OrderStatus.PARTIALLY_FILLED)
+                .and("filledQuantity").is(filledQuantity));
+        Update update = new Update()
+                .set("status", Order.OrderStatus.CANCELLED)
+                .push("outbox", cancellation);
+        return Optional.ofNullable(mongoTemplate.findAndModify(query, update,
+                FindAndModifyOptions.options().returnNew(true), Order.class));
+    }
+}
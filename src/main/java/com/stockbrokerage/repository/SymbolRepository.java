@@ -4,6 +4,7 @@ import com.stockbrokerage.entity.Symbol;
 import org.springframework.data.mongodb.repository.MongoRepository;
 import org.springframework.stereotype.Repository;
 
+import java.util.Collection;
 import java.util.List;
 import java.util.Optional;
 
@@ -12,6 +13,8 @@ public interface SymbolRepository extends MongoRepository<Symbol, String> {
     
     Optional<Symbol> findBySymbol(String symbol);
     
+    List<Symbol> findBySymbolIn(Collection<String> symbols);
+    
     List<Symbol> findByIsActiveTrue();
     
     List<Symbol> findByExchange(String exchange);
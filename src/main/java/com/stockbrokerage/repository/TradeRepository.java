@@ -0,0 +1,26 @@
+package com.stockbrokerage.repository;
+
+import com.stockbrokerage.entity.Trade;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.mongodb.repository.Aggregation;
+import org.springframework.data.mongodb.repository.MongoRepository;
+import org.springframework.stereotype.Repository;
+
+import java.time.LocalDateTime;
+import java.util.List;
+
+@Repository
+public interface TradeRepository extends MongoRepository<Trade, String> {
+    
+    List<Trade> findByUserIdAndExecutedAtBetweenOrderByExecutedAtDesc(String userId, LocalDateTime from,
+                                                                       LocalDateTime to, Pageable pageable);
+    
+    List<Trade> findBySymbolIdAndExecutedAtBetweenOrderByExecutedAtDesc(String symbolId, LocalDateTime from,
+                                                                         LocalDateTime to, Pageable pageable);
+    
+    @Aggregation(pipeline = {
+            "{ '$match': { 'symbolId': ?0, 'executedAt': { '$gte': ?1, '$lt': ?2 } } }",
+            "{ '$group': { '_id': null, 'volume': { '$sum': '$quantity' } } }"
+    })
+    Long sumQuantityBySymbolId(String symbolId, LocalDateTime from, LocalDateTime to);
+}
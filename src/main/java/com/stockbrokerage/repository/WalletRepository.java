@@ -7,7 +7,7 @@ import org.springframework.stereotype.Repository;
 import java.util.Optional;
 
 @Repository
-public interface WalletRepository extends MongoRepository<Wallet, String> {
+public interface WalletRepository extends MongoRepository<Wallet, String>, WalletRepositoryCustom {
     
     Optional<Wallet> findByUserId(String userId);
     
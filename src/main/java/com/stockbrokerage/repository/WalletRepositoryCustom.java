@@ -0,0 +1,21 @@
+package com.stockbrokerage.repository;
+
+import com.stockbrokerage.entity.Wallet;
+
+import java.math.BigDecimal;
+import java.util.Optional;
+
+/**
+ * Wallet changes applied atomically in Mongo with {@code $inc}, never as a read-modify-write, so
+ * concurrent writers cannot lose each other's updates. Amounts are stored as Decimal128.
+ */
+public interface WalletRepositoryCustom {
+
+    void increment(String userId, BigDecimal balanceChange, BigDecimal lockedChange);
+
+    /** Debits the balance only if {@code balance - lockedBalance} covers the amount; empty if it does not. */
+    Optional<Wallet> debitAvailable(String userId, BigDecimal amount);
+
+    /** Locks the amount only if {@code balance - lockedBalance} covers it; empty if it does not. */
+    Optional<Wallet> lockAvailable(String userId, BigDecimal amount);
+}
@@ -0,0 +1,55 @@
+package com.stockbrokerage.repository;
+
+import com.stockbrokerage.entity.Wallet;
+import lombok.RequiredArgsConstructor;
+import org.bson.types.Decimal128;
+import org.springframework.data.mongodb.core.FindAndModifyOptions;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.aggregation.ArithmeticOperators;
+import org.springframework.data.mongodb.core.aggregation.ComparisonOperators;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+import java.util.Optional;
+
+@RequiredArgsConstructor
+public class WalletRepositoryCustomImpl implements WalletRepositoryCustom {
+
+    private final MongoTemplate mongoTemplate;
+
+    @Override
+    public void increment(String userId, BigDecimal balanceChange, BigDecimal lockedChange) {
+        mongoTemplate.updateFirst(Query.query(Criteria.where("userId").is(userId)),
+                inc(balanceChange, lockedChange), Wallet.class);
+    }
+
+    @Override
+    public Optional<Wallet> debitAvailable(String userId, BigDecimal amount) {
+        return Optional.ofNullable(mongoTemplate.findAndModify(availableAtLeast(userId, amount),
+                inc(amount.negate(), BigDecimal.ZERO), FindAndModifyOptions.options().returnNew(true), Wallet.class));
+    }
+
+    @Override
+    public Optional<Wallet> lockAvailable(String userId, BigDecimal amount) {
+        return Optional.ofNullable(mongoTemplate.findAndModify(availableAtLeast(userId, amount),
+                inc(BigDecimal.ZERO, amount), FindAndModifyOptions.options().returnNew(true), Wallet.class));
+    }
+
+    private static Query availableAtLeast(String userId, BigDecimal amount) {
+        return Query.query(Criteria.where("userId").is(userId)
+                .andOperator(Criteria.expr(ComparisonOperators.valueOf(
+                        ArithmeticOperators.valueOf("balance").subtract("lockedBalance"))
+                        .greaterThanEqualToValue(new Decimal128(amount)))));
+    }
+
+    /** The {@code $inc} for a balance and lock change, usable in bulk writes too. */
+    public static Update inc(BigDecimal balanceChange, BigDecimal lockedChange) {
+        return new Update()
+                .inc("balance", new Decimal128(balanceChange))
+                .inc("lockedBalance", new Decimal128(lockedChange))
+                .set("updatedAt", LocalDateTime.now());
+    }
+}
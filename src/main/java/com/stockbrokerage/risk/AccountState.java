@@ -0,0 +1,140 @@
+package com.stockbrokerage.risk;
+
+import java.math.BigDecimal;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.stream.Collectors;
+
+/**
+ * In-memory cash and positions of one account, as seen by pre-trade risk checks.
+ *
+ * Funds and each position are immutable values swapped with compare-and-set, so a check and the
+ * reservation it guards happen atomically without locks: two orders racing for the same cash
+ * cannot both pass. Only {@link AccountStateCache} mutates it, and persists the result.
+ */
+public class AccountState {
+
+    /**
+     * Cash after the account's {@code sequence}-th change. Every change bumps the sequence in the same
+     * compare-and-set, so each change is numbered gaplessly with the balance it produced.
+     */
+    public record Funds(BigDecimal balance, BigDecimal locked, long sequence) {
+        public BigDecimal available() {
+            return balance.subtract(locked);
+        }
+
+        Funds plus(BigDecimal balanceChange, BigDecimal lockedChange) {
+            return new Funds(balance.add(balanceChange), locked.add(lockedChange), sequence + 1);
+        }
+    }
+
+    /** Shares held, and how many of them open SELL orders have reserved. */
+    public record Position(long quantity, long reserved) {
+        public long available() {
+            return quantity - reserved;
+        }
+    }
+
+    private static final Position EMPTY = new Position(0, 0);
+
+    private final String userId;
+    private volatile boolean active;
+    private final AtomicReference<Funds> funds;
+    private final ConcurrentHashMap<String, Position> positions;
+
+    AccountState(String userId, boolean active, Funds funds, Map<String, Position> positions) {
+        this.userId = userId;
+        this.active = active;
+        this.funds = new AtomicReference<>(funds);
+        this.positions = new ConcurrentHashMap<>(positions);
+    }
+
+    public String getUserId() {
+        return userId;
+    }
+
+    public boolean isActive() {
+        return active;
+    }
+
+    void setActive(boolean active) {
+        this.active = active;
+    }
+
+    public Funds getFunds() {
+        return funds.get();
+    }
+
+    public Position getPosition(String symbolId) {
+        return positions.getOrDefault(symbolId, EMPTY);
+    }
+
+    /** Shares available to sell per symbol. */
+    public Map<String, Long> getAvailableQuantities() {
+        return positions.entrySet().stream()
+                .collect(Collectors.toMap(Map.Entry::getKey, e -> e.getValue().available()));
+    }
+
+    Funds reserveFunds(BigDecimal amount) {
+        return funds.updateAndGet(current -> {
+            BigDecimal available = current.available();
+            if (available.compareTo(amount) < 0) {
+                throw new RuntimeException("Insufficient funds. Required: " + amount + ", Available: " + available);
+            }
+            return current.plus(BigDecimal.ZERO, amount);
+        });
+    }
+
+    /** Applies a change to the balance and to the locked funds in one step. */
+    Funds change(BigDecimal balanceChange, BigDecimal lockedChange) {
+        return funds.updateAndGet(current -> current.plus(balanceChange, lockedChange));
+    }
+
+    /** Debits unreserved cash, refusing to dip into what open orders have locked. */
+    Funds withdraw(BigDecimal amount) {
+        return funds.updateAndGet(current -> {
+            if (current.available().compareTo(amount) < 0) {
+                throw new RuntimeException("Insufficient funds for withdrawal");
+            }
+            return current.plus(amount.negate(), BigDecimal.ZERO);
+        });
+    }
+
+    void reserveHoldings(String symbolId, long quantity) {
+        while (true) {
+            Position current = positions.get(symbolId);
+            if (current == null || current.available() < quantity) {
+                throw new RuntimeException("Insufficient holdings. Required: " + quantity +
+                        ", Available: " + (current != null ? current.available() : 0));
+            }
+            if (positions.replace(symbolId, current, new Position(current.quantity(), current.reserved() + quantity))) {
+                return;
+            }
+        }
+    }
+
+    void releaseHoldings(String symbolId, long quantity) {
+        updatePosition(symbolId, 0, -quantity);
+    }
+
+    /** Adds to a position's quantity and reservation, dropping the position once both are empty. */
+    void updatePosition(String symbolId, long quantityChange, long reservedChange) {
+        while (true) {
+            Position current = positions.get(symbolId);
+            Position base = current != null ? current : EMPTY;
+            Position updated = new Position(base.quantity() + quantityChange, Math.max(base.reserved() + reservedChange, 0));
+            boolean swapped;
+            if (updated.quantity() <= 0 && updated.reserved() == 0) {
+                swapped = current == null || positions.remove(symbolId, current);
+            } else if (current == null) {
+                swapped = positions.putIfAbsent(symbolId, updated) == null;
+            } else {
+                swapped = positions.replace(symbolId, current, updated);
+            }
+            if (swapped) {
+                return;
+            }
+        }
+    }
+}
@@ -0,0 +1,375 @@
+package com.stockbrokerage.risk;
+
+import com.stockbrokerage.entity.Holding;
+import com.stockbrokerage.entity.LedgerEntry;
+import com.stockbrokerage.entity.Order;
+import com.stockbrokerage.entity.User;
+import com.stockbrokerage.entity.Wallet;
+import com.stockbrokerage.ledger.AccountLedger;
+import com.stockbrokerage.repository.HoldingRepository;
+import com.stockbrokerage.repository.OrderRepository;
+import com.stockbrokerage.repository.UserRepository;
+import com.stockbrokerage.repository.WalletRepository;
+import com.stockbrokerage.repository.WalletRepositoryCustomImpl;
+import jakarta.annotation.PreDestroy;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.context.annotation.DependsOn;
+import org.springframework.data.mongodb.BulkOperationException;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Account state for pre-trade risk checks, kept in memory per user and loaded from Mongo on first
+ * use. Checks and reservations are compare-and-set operations on {@link AccountState}, so most
+ * rejections need no database round trip on the request thread.
+ *
+ * Every balance and lock change goes through the cache, and the changes are written back in bulk
+ * every {@code app.risk.flush-interval-ms}, along with the shares SELL orders have reserved. Memory
+ * is per instance, though, so cash leaving the account's available funds, by an order's reservation
+ * or a withdrawal, is also written through with a guarded update: Mongo, not memory, decides
+ * whether two instances can both spend the same cash. Holdings themselves stay owned by trade settlement, which reports each batch of
+ * fills here before writing it.
+ *
+ * Every cash change is also appended to the {@link AccountLedger}, numbered by the account and
+ * carrying the balances it produced, so the wallet can be audited and rebuilt from its history.
+ * Each flush writes the ledger first and the wallets only once their entries are stored.
+ */
+@Component
+@DependsOn("decimalMigration")
+@RequiredArgsConstructor
+@Slf4j
+public class AccountStateCache {
+
+    private static final List<Order.OrderStatus> OPEN_STATUSES =
+            List.of(Order.OrderStatus.PENDING, Order.OrderStatus.PARTIALLY_FILLED);
+
+    private final UserRepository userRepository;
+    private final WalletRepository walletRepository;
+    private final HoldingRepository holdingRepository;
+    private final OrderRepository orderRepository;
+    private final MongoTemplate mongoTemplate;
+    private final AccountLedger ledger;
+
+    private final ConcurrentHashMap<String, AccountState> accounts = new ConcurrentHashMap<>();
+    // Wallet changes not yet written, per user, as a change of balance and of locked funds
+    private final ConcurrentHashMap<String, Change> pending = new ConcurrentHashMap<>();
+    // Holdings whose reserved quantity changed since the last flush
+    private final Set<PositionKey> lockedChanged = ConcurrentHashMap.newKeySet();
+
+    private record PositionKey(String userId, String symbolId) {
+    }
+
+    private record Change(BigDecimal balance, BigDecimal locked) {
+        Change plus(Change other) {
+            return new Change(balance.add(other.balance), locked.add(other.locked));
+        }
+    }
+
+    public AccountState get(String userId) {
+        AccountState account = accounts.get(userId);
+        return account != null ? account : accounts.computeIfAbsent(userId, this::load);
+    }
+
+    /**
+     * Locks funds for a BUY order. Memory rejects what it can; the lock itself is written through,
+     * guarded in Mongo, so another instance's reservations on the same wallet are counted too.
+     */
+    public void reserveFunds(String userId, BigDecimal amount, String reference) {
+        AccountState account = get(userId);
+        AccountState.Funds after = account.reserveFunds(amount);
+        // Numbered in memory already, so the entry is appended even if the write-through fails
+        ledger.append(userId, LedgerEntry.EntryType.LOCK, reference, BigDecimal.ZERO, amount, after);
+        try {
+            // Write what is pending first, so the guard sees the funds this account has in memory
+            flush(List.of(userId));
+            if (walletRepository.lockAvailable(userId, amount).isEmpty()) {
+                throw new RuntimeException("Insufficient funds. Required: " + amount);
+            }
+        } catch (RuntimeException e) {
+            ledger.append(userId, LedgerEntry.EntryType.RELEASE, reference, BigDecimal.ZERO, amount.negate(),
+                    account.change(BigDecimal.ZERO, amount.negate()));
+            throw e;
+        }
+    }
+
+    public void releaseFunds(String userId, BigDecimal amount, String reference) {
+        change(userId, LedgerEntry.EntryType.RELEASE, reference, BigDecimal.ZERO, amount.negate());
+    }
+
+    /** Pays out of locked funds: the amount leaves the balance and the lock together. */
+    public void deductFunds(String userId, BigDecimal amount, String reference) {
+        change(userId, LedgerEntry.EntryType.SETTLEMENT, reference, amount.negate(), amount.negate());
+    }
+
+    public void adjustBalance(String userId, BigDecimal change, LedgerEntry.EntryType type, String reference) {
+        change(userId, type, reference, change, BigDecimal.ZERO);
+    }
+
+    /**
+     * Money leaving the platform is written through rather than flushed later, guarded in Mongo as
+     * well as in memory, so a crash cannot lose a debit that was already paid out.
+     */
+    public void withdraw(String userId, BigDecimal amount, String reference) {
+        AccountState account = get(userId);
+        AccountState.Funds after = account.withdraw(amount);
+        // Numbered in memory already, so the entry is appended even if the write-through fails
+        ledger.append(userId, LedgerEntry.EntryType.WITHDRAWAL, reference, amount.negate(), BigDecimal.ZERO, after);
+        try {
+            // Write what is pending first, so the guard sees the funds this account has in memory
+            flush(List.of(userId));
+            if (walletRepository.debitAvailable(userId, amount).isEmpty()) {
+                throw new RuntimeException("Insufficient funds for withdrawal");
+            }
+        } catch (RuntimeException e) {
+            ledger.append(userId, LedgerEntry.EntryType.REVERSAL, reference, amount, BigDecimal.ZERO,
+                    account.change(amount, BigDecimal.ZERO));
+            throw e;
+        }
+    }
+
+    /** Reserves shares for a SELL order, persisted as the holding's {@code lockedQuantity}. */
+    public void reserveHoldings(String userId, String symbolId, long quantity) {
+        get(userId).reserveHoldings(symbolId, quantity);
+        lockedChanged.add(new PositionKey(userId, symbolId));
+    }
+
+    public void releaseHoldings(String userId, String symbolId, long quantity) {
+        get(userId).releaseHoldings(symbolId, quantity);
+        lockedChanged.add(new PositionKey(userId, symbolId));
+    }
+
+    /** A settled fill as it applies to one account. */
+    public record Fill(String tradeId, String userId, String symbolId, Order.OrderSide side, long quantity,
+                       BigDecimal balanceChange, BigDecimal releasedFunds) {
+    }
+
+    /**
+     * Applies settled fills to their accounts: each fill's balance change and the release of the
+     * funds its order had locked for it are one update. Settlement calls this before it writes the
+     * fills' holdings, so an account loaded here reads holdings without them and counts each fill
+     * exactly once. If that write fails, {@link #revertTrades} undoes the fills.
+     */
+    public void applyTrades(List<Fill> fills) {
+        for (Fill fill : fills) {
+            AccountState account = get(fill.userId());
+            if (fill.side() == Order.OrderSide.BUY) {
+                account.updatePosition(fill.symbolId(), fill.quantity(), 0);
+            } else {
+                account.updatePosition(fill.symbolId(), -fill.quantity(), -fill.quantity());
+                lockedChanged.add(new PositionKey(fill.userId(), fill.symbolId()));
+            }
+            change(fill.userId(), LedgerEntry.EntryType.TRADE, fill.tradeId(),
+                    fill.balanceChange(), fill.releasedFunds().negate());
+        }
+    }
+
+    public void revertTrades(List<Fill> fills) {
+        for (Fill fill : fills) {
+            AccountState account = get(fill.userId());
+            if (fill.side() == Order.OrderSide.BUY) {
+                account.updatePosition(fill.symbolId(), -fill.quantity(), 0);
+            } else {
+                account.updatePosition(fill.symbolId(), fill.quantity(), fill.quantity());
+                lockedChanged.add(new PositionKey(fill.userId(), fill.symbolId()));
+            }
+            change(fill.userId(), LedgerEntry.EntryType.REVERSAL, fill.tradeId(),
+                    fill.balanceChange().negate(), fill.releasedFunds());
+        }
+    }
+
+    /**
+     * Writes the wallet changes made since the last flush in one bulk write, as {@code $inc}s
+     * rather than absolute values, so they never overwrite a change made outside this cache.
+     */
+    @Scheduled(fixedDelayString = "${app.risk.flush-interval-ms:20}")
+    public void flush() {
+        flushLockedQuantities();
+        try {
+            write(new ArrayList<>(pending.keySet()));
+        } catch (RuntimeException e) {
+            log.error("Error writing wallets, will retry", e);
+        }
+    }
+
+    /**
+     * Writes the pending changes of these users now rather than on the next flush, for callers
+     * that must not go on until they are stored. Throws if they could not be written; what was not
+     * written stays pending.
+     */
+    public void flush(Collection<String> userIds) {
+        write(userIds);
+    }
+
+    private void write(Collection<String> userIds) {
+        Map<String, Change> changes = new HashMap<>();
+        List<String> written = new ArrayList<>();
+        BulkOperations bulk = mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, Wallet.class);
+        for (String userId : userIds) {
+            // Taking the change out atomically leaves any change racing this flush for the next one
+            Change change = pending.remove(userId);
+            if (change != null) {
+                changes.put(userId, change);
+                written.add(userId);
+                bulk.updateOne(Query.query(Criteria.where("userId").is(userId)),
+                        WalletRepositoryCustomImpl.inc(change.balance(), change.locked()));
+            }
+        }
+        // Entries are appended before their change is pending, so the ones taken out are queued by now
+        if (!ledger.flush()) {
+            changes.forEach((userId, change) -> pending.merge(userId, change, Change::plus));
+            throw new RuntimeException("Error writing ledger entries");
+        }
+        if (changes.isEmpty()) {
+            return;
+        }
+        try {
+            bulk.execute();
+        } catch (BulkOperationException e) {
+            // The other increments were applied; only the failed ones are retried
+            e.getErrors().forEach(error -> {
+                String userId = written.get(error.getIndex());
+                pending.merge(userId, changes.get(userId), Change::plus);
+            });
+            throw e;
+        } catch (RuntimeException e) {
+            changes.forEach((userId, change) -> pending.merge(userId, change, Change::plus));
+            throw e;
+        }
+    }
+
+    /**
+     * Writes the reserved quantities changed since the last flush. Unlike wallet changes they are
+     * written as absolute values: nothing else writes {@code lockedQuantity}.
+     */
+    private void flushLockedQuantities() {
+        if (lockedChanged.isEmpty()) {
+            return;
+        }
+        List<PositionKey> keys = new ArrayList<>();
+        BulkOperations bulk = mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, Holding.class);
+        for (PositionKey key : new ArrayList<>(lockedChanged)) {
+            // Marked while the account was still loading; picked up by a later flush
+            AccountState account = accounts.get(key.userId());
+            if (account == null) {
+                continue;
+            }
+            // Clear the mark before reading, so a change racing this flush marks the holding again
+            lockedChanged.remove(key);
+            keys.add(key);
+            long reserved = account.getPosition(key.symbolId()).reserved();
+            bulk.updateOne(Query.query(Criteria.where("userId").is(key.userId()).and("symbolId").is(key.symbolId())),
+                    new Update().set("lockedQuantity", reserved));
+        }
+        if (keys.isEmpty()) {
+            return;
+        }
+        try {
+            bulk.execute();
+        } catch (RuntimeException e) {
+            lockedChanged.addAll(keys);
+            log.error("Error writing {} locked holding quantities, will retry", keys.size(), e);
+        }
+    }
+
+    private void change(String userId, LedgerEntry.EntryType type, String reference,
+                        BigDecimal balanceChange, BigDecimal lockedChange) {
+        AccountState.Funds after = get(userId).change(balanceChange, lockedChange);
+        record(userId, type, reference, balanceChange, lockedChange, after);
+    }
+
+    private void record(String userId, LedgerEntry.EntryType type, String reference,
+                        BigDecimal balanceChange, BigDecimal lockedChange, AccountState.Funds after) {
+        ledger.append(userId, type, reference, balanceChange, lockedChange, after);
+        pending.merge(userId, new Change(balanceChange, lockedChange), Change::plus);
+    }
+
+    /** Picks up status changes made outside the application, e.g. a suspended account. */
+    @Scheduled(fixedDelayString = "${app.risk.status-refresh-ms:30000}")
+    public void refreshStatuses() {
+        if (accounts.isEmpty()) {
+            return;
+        }
+        for (User user : userRepository.findAllById(accounts.keySet())) {
+            AccountState account = accounts.get(user.getId());
+            if (account != null) {
+                account.setActive(user.getStatus() == User.UserStatus.ACTIVE);
+            }
+        }
+    }
+
+    @PreDestroy
+    public void close() {
+        flush();
+    }
+
+    private AccountState load(String userId) {
+        User user = userRepository.findById(userId)
+                .orElseThrow(() -> new RuntimeException("User not found"));
+        Wallet wallet = walletRepository.findByUserId(userId)
+                .orElseThrow(() -> new RuntimeException("Wallet not found for user"));
+
+        // Shares already promised to open SELL orders stay reserved across restarts. The open
+        // orders are the source of truth; a persisted lockedQuantity that drifted is rewritten
+        Map<String, Long> reserved = new HashMap<>();
+        for (Order order : orderRepository.findByUserIdAndSideAndStatusIn(userId, Order.OrderSide.SELL, OPEN_STATUSES)) {
+            long filled = order.getFilledQuantity() != null ? order.getFilledQuantity() : 0L;
+            reserved.merge(order.getSymbolId(), order.getQuantity() - filled, Long::sum);
+        }
+        Map<String, AccountState.Position> positions = new HashMap<>();
+        for (Holding holding : holdingRepository.findByUserId(userId)) {
+            long locked = reserved.getOrDefault(holding.getSymbolId(), 0L);
+            if (holding.getLockedQuantity() == null || holding.getLockedQuantity() != locked) {
+                lockedChanged.add(new PositionKey(userId, holding.getSymbolId()));
+            }
+            positions.merge(holding.getSymbolId(),
+                    new AccountState.Position(holding.getQuantity(), reserved.getOrDefault(holding.getSymbolId(), 0L)),
+                    (a, b) -> new AccountState.Position(a.quantity() + b.quantity(), a.reserved()));
+        }
+
+        log.debug("Loaded account state for user: {}", userId);
+        return new AccountState(userId, user.getStatus() == User.UserStatus.ACTIVE, openFunds(wallet), positions);
+    }
+
+    /**
+     * Picks up the account's ledger where it stopped. A wallet without entries opens its ledger
+     * with its current balances; one that disagrees with its last entry, because a crash fell
+     * between a flush's ledger and wallet writes, is brought back in line with an adjustment, since
+     * the wallet is what the account trades on.
+     */
+    private AccountState.Funds openFunds(Wallet wallet) {
+        String userId = wallet.getUserId();
+        LedgerEntry last = ledger.lastEntry(userId);
+        if (last == null) {
+            AccountState.Funds opening = new AccountState.Funds(wallet.getBalance(), wallet.getLockedBalance(), 1);
+            ledger.append(userId, LedgerEntry.EntryType.OPENING, null, wallet.getBalance(), wallet.getLockedBalance(), opening);
+            return opening;
+        }
+        AccountState.Funds funds = new AccountState.Funds(last.getBalance(), last.getLockedBalance(), last.getSequence());
+        BigDecimal balanceDrift = wallet.getBalance().subtract(last.getBalance());
+        BigDecimal lockedDrift = wallet.getLockedBalance().subtract(last.getLockedBalance());
+        if (balanceDrift.signum() == 0 && lockedDrift.signum() == 0) {
+            return funds;
+        }
+        log.warn("Wallet of user {} differs from its ledger by {} balance, {} locked; adjusting the ledger",
+                userId, balanceDrift, lockedDrift);
+        AccountState.Funds adjusted = new AccountState.Funds(wallet.getBalance(), wallet.getLockedBalance(), last.getSequence() + 1);
+        ledger.append(userId, LedgerEntry.EntryType.ADJUSTMENT, null, balanceDrift, lockedDrift, adjusted);
+        return adjusted;
+    }
+}
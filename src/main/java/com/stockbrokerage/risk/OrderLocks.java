@@ -0,0 +1,31 @@
+package com.stockbrokerage.risk;
+
+import com.stockbrokerage.entity.Order;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+
+/**
+ * How much of a BUY order's locked funds belongs to its filled part. Fills release their share
+ * at settlement and cancels release the rest, both through {@link #lockedUpTo}, so the releases
+ * add up to exactly what was locked.
+ */
+public final class OrderLocks {
+
+    private OrderLocks() {
+    }
+
+    public static BigDecimal lockedAmount(Order order) {
+        // Orders placed before lockedAmount was recorded locked their value plus fees
+        return order.getLockedAmount() != null ? order.getLockedAmount() : order.getOrderValue().add(order.getFees());
+    }
+
+    public static BigDecimal lockedUpTo(Order order, long filledQuantity) {
+        BigDecimal locked = lockedAmount(order);
+        if (filledQuantity >= order.getQuantity()) {
+            return locked;
+        }
+        return locked.multiply(BigDecimal.valueOf(filledQuantity))
+                .divide(BigDecimal.valueOf(order.getQuantity()), 4, RoundingMode.HALF_UP);
+    }
+}
@@ -0,0 +1,64 @@
+package com.stockbrokerage.service;
+
+import com.stockbrokerage.entity.LedgerEntry;
+import com.stockbrokerage.entity.LedgerSnapshot;
+import com.stockbrokerage.risk.AccountState;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.stereotype.Service;
+
+import java.math.BigDecimal;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+
+/**
+ * Reads the account ledger written by {@link com.stockbrokerage.ledger.AccountLedger}. It trails
+ * the account state cache by one flush.
+ */
+@Service
+@RequiredArgsConstructor
+@Slf4j
+public class LedgerService {
+    
+    private final MongoTemplate mongoTemplate;
+    
+    /** An account's balances rebuilt from its latest snapshot and the entries after it. */
+    public AccountState.Funds getBalance(String userId) {
+        LedgerSnapshot snapshot = mongoTemplate.findOne(Query.query(Criteria.where("userId").is(userId))
+                .with(Sort.by(Sort.Direction.DESC, "sequence")).limit(1), LedgerSnapshot.class);
+        AccountState.Funds funds = snapshot != null
+                ? new AccountState.Funds(snapshot.getBalance(), snapshot.getLockedBalance(), snapshot.getSequence())
+                : new AccountState.Funds(BigDecimal.ZERO, BigDecimal.ZERO, 0);
+        
+        BigDecimal balance = funds.balance();
+        BigDecimal locked = funds.locked();
+        long sequence = funds.sequence();
+        for (LedgerEntry entry : getEntries(userId, sequence + 1, Integer.MAX_VALUE)) {
+            balance = balance.add(entry.getBalanceChange());
+            locked = locked.add(entry.getLockedChange());
+            sequence = entry.getSequence();
+        }
+        return new AccountState.Funds(balance, locked, sequence);
+    }
+    
+    public List<LedgerEntry> getEntries(String userId, long fromSequence, int limit) {
+        return mongoTemplate.find(entriesFrom(userId, fromSequence).limit(limit), LedgerEntry.class);
+    }
+    
+    /** Streams an account's entries in sequence order from a cursor, without holding them in memory. */
+    public void replay(String userId, long fromSequence, Consumer<LedgerEntry> consumer) {
+        try (Stream<LedgerEntry> entries = mongoTemplate.stream(entriesFrom(userId, fromSequence), LedgerEntry.class)) {
+            entries.forEach(consumer);
+        }
+    }
+    
+    private static Query entriesFrom(String userId, long fromSequence) {
+        return Query.query(Criteria.where("userId").is(userId).and("sequence").gte(fromSequence))
+                .with(Sort.by(Sort.Direction.ASC, "sequence"));
+    }
+}
@@ -4,6 +4,8 @@ import com.stockbrokerage.entity.Symbol;
 import com.stockbrokerage.events.MarketDataEvent;
 import com.stockbrokerage.kafka.MarketDataProducer;
 import com.stockbrokerage.repository.SymbolRepository;
+import com.stockbrokerage.symbols.SymbolRegistry;
+import com.stockbrokerage.symbols.SymbolSlots;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.data.redis.core.RedisTemplate;
@@ -15,7 +17,13 @@ import java.math.BigDecimal;
 import java.math.RoundingMode;
 import java.time.Duration;
 import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Random;
 import java.util.concurrent.ThreadLocalRandom;
 
@@ -25,14 +33,73 @@ import java.util.concurrent.ThreadLocalRandom;
 public class MarketDataService {
     
     private final SymbolRepository symbolRepository;
+    private final SymbolRegistry symbolRegistry;
     private final RedisTemplate<String, Object> redisTemplate;
     private final MarketDataProducer marketDataProducer;
     private final Random random = new Random();
     
+    // Last price per symbol, kept current from market data so hot paths need no Redis round trip
+    private final SymbolSlots<BigDecimal> lastPrices = new SymbolSlots<>();
+    
     public BigDecimal getCurrentPrice(String symbolId) {
         String key = "market:price:" + symbolId;
-        Object price = redisTemplate.opsForValue().get(key);
+        BigDecimal price = toPrice(redisTemplate.opsForValue().get(key));
         
+        // Return a default price if not found in cache
+        return price != null ? price : BigDecimal.valueOf(100.00);
+    }
+    
+    /** {@link #getCurrentPrice} for several symbols, read from Redis in one MGET. */
+    public Map<String, BigDecimal> getCurrentPrices(Collection<String> symbolIds) {
+        List<String> ids = new ArrayList<>(new LinkedHashSet<>(symbolIds));
+        Map<String, BigDecimal> prices = new HashMap<>();
+        if (ids.isEmpty()) {
+            return prices;
+        }
+        List<Object> values = redisTemplate.opsForValue().multiGet(ids.stream().map(id -> "market:price:" + id).toList());
+        for (int i = 0; i < ids.size(); i++) {
+            BigDecimal price = values != null ? toPrice(values.get(i)) : null;
+            prices.put(ids.get(i), price != null ? price : BigDecimal.valueOf(100.00));
+        }
+        return prices;
+    }
+    
+    /**
+     * Latest price from the in-process table, read from Redis only the first time a symbol is
+     * asked for before any tick arrived.
+     *
+     * @return the price, or null if the symbol has none yet
+     */
+    public BigDecimal getLastPrice(String symbolId) {
+        int ordinal = symbolRegistry.ordinal(symbolId);
+        return ordinal >= 0 ? getLastPrice(ordinal) : toPrice(redisTemplate.opsForValue().get("market:price:" + symbolId));
+    }
+    
+    /** {@link #getLastPrice(String)} for callers that resolved the symbol's ordinal already. */
+    public BigDecimal getLastPrice(int ordinal) {
+        BigDecimal price = lastPrices.get(ordinal);
+        if (price != null) {
+            return price;
+        }
+        Symbol symbol = symbolRegistry.get(ordinal);
+        if (symbol == null) {
+            return null;
+        }
+        price = toPrice(redisTemplate.opsForValue().get("market:price:" + symbol.getId()));
+        if (price != null) {
+            lastPrices.setIfAbsent(ordinal, price);
+        }
+        return price;
+    }
+    
+    private void setLastPrice(String symbolId, BigDecimal price) {
+        int ordinal = symbolRegistry.ordinal(symbolId);
+        if (ordinal >= 0) {
+            lastPrices.set(ordinal, price);
+        }
+    }
+    
+    private static BigDecimal toPrice(Object price) {
         if (price instanceof BigDecimal) {
             return (BigDecimal) price;
         } else if (price instanceof String) {
@@ -40,17 +107,16 @@ public class MarketDataService {
         } else if (price instanceof Number) {
             return BigDecimal.valueOf(((Number) price).doubleValue());
         }
-        
-        // Return a default price if not found in cache
-        return BigDecimal.valueOf(100.00);
+        return null;
     }
     
     public void updatePrice(String symbolId, BigDecimal price) {
         String key = "market:price:" + symbolId;
         redisTemplate.opsForValue().set(key, price, Duration.ofHours(1));
+        setLastPrice(symbolId, price);
         
         // Publish price update to Kafka
-        Symbol symbol = symbolRepository.findById(symbolId).orElse(null);
+        Symbol symbol = symbolRegistry.findById(symbolId).orElse(null);
         if (symbol != null) {
             MarketDataEvent event = MarketDataEvent.builder()
                     .symbolId(symbolId)
@@ -64,18 +130,27 @@ public class MarketDataService {
         }
     }
     
-    @KafkaListener(topics = "market-data", groupId = "stock-brokerage-group")
-    public void handleMarketDataUpdate(MarketDataEvent event) {
-        log.info("Received market data update: {} - {}", event.getSymbol(), event.getPrice());
+    @KafkaListener(topics = "market-data", groupId = "stock-brokerage-group",
+            containerFactory = "marketDataListenerContainerFactory")
+    public void handleMarketDataUpdates(List<MarketDataEvent> events) {
+        log.debug("Received {} market data updates", events.size());
+        
+        // Only the last price per symbol in the batch is cached
+        Map<String, BigDecimal> prices = new LinkedHashMap<>();
+        for (MarketDataEvent event : events) {
+            prices.put(event.getSymbolId(), event.getPrice());
+        }
         
         // Update cache
-        String key = "market:price:" + event.getSymbolId();
-        redisTemplate.opsForValue().set(key, event.getPrice(), Duration.ofHours(1));
+        prices.forEach((symbolId, price) -> {
+            redisTemplate.opsForValue().set("market:price:" + symbolId, price, Duration.ofHours(1));
+            setLastPrice(symbolId, price);
+        });
         
         // You can add additional processing here like:
         // - Updating database with historical data
-        // - Triggering stop-loss orders
         // - Sending notifications to users
+        // Stop-loss/stop-limit triggering runs in OrderEventConsumer (order-processing-group)
     }
     
     // @Scheduled(fixedRate = 30000) // Disabled - using RealTimeStockService instead
@@ -101,7 +176,7 @@ public class MarketDataService {
     }
     
     public MarketDataEvent getMarketData(String symbolId) {
-        Symbol symbol = symbolRepository.findById(symbolId)
+        Symbol symbol = symbolRegistry.findById(symbolId)
                 .orElseThrow(() -> new RuntimeException("Symbol not found"));
         
         BigDecimal currentPrice = getCurrentPrice(symbolId);
@@ -0,0 +1,470 @@
+package com.stockbrokerage.service;
+
+import com.mongodb.client.result.UpdateResult;
+import com.stockbrokerage.engine.ExecutionReport;
+import com.stockbrokerage.engine.Prices;
+import com.stockbrokerage.engine.RingBuffer;
+import com.stockbrokerage.entity.Order;
+import com.stockbrokerage.entity.OutboxMessage;
+import com.stockbrokerage.events.OrderCancelledEvent;
+import com.stockbrokerage.events.PortfolioUpdateEvent;
+import com.stockbrokerage.events.TradeExecutedEvent;
+import com.stockbrokerage.kafka.OutboxRelay;
+import com.stockbrokerage.metrics.PipelineMetrics;
+import com.stockbrokerage.risk.OrderLocks;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.mongodb.core.FindAndModifyOptions;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.stereotype.Service;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Persistence and publishing stage of the matching pipeline. Each shard's executor thread drains
+ * its reports through its own {@link #newReportHandler() handler}, after the book has already
+ * been updated.
+ *
+ * Fills are buffered per order until the end of the drained batch and written with one
+ * conditional update per order, setting the cumulative quantity and volume-weighted average
+ * price; each fill is still published as its own trade, added to the order's outbox by that same
+ * update. Writes are conditional on the order being open with the filled quantity this stage last
+ * saw, so a fill that races a cancel (or a redelivered event) is dropped instead of overwriting it.
+ *
+ * Orders the engine expires are collected per batch as well and closed with one bulk update;
+ * their unfilled locks are then released. Orders the engine rejects release what they locked at
+ * placement the same way.
+ *
+ * A fill write that keeps failing is retried a few times; after that the order is cancelled, off
+ * the book as well as in Mongo, and its locks released, so it never rests in the engine while
+ * its stored state stops following it.
+ */
+@Service
+@RequiredArgsConstructor
+@Slf4j
+public class OrderExecutionService {
+
+    private static final List<Order.OrderStatus> OPEN_STATUSES =
+            List.of(Order.OrderStatus.PENDING, Order.OrderStatus.PARTIALLY_FILLED);
+    private static final int FILL_WRITE_ATTEMPTS = 3;
+    private static final long FILL_RETRY_BACKOFF_MS = 50;
+
+    private final MongoTemplate mongoTemplate;
+    private final OutboxRelay outboxRelay;
+    private final PortfolioService portfolioService;
+    private final PipelineMetrics pipelineMetrics;
+
+    public RingBuffer.Handler<ExecutionReport> newReportHandler() {
+        return new ShardExecutor();
+    }
+
+    /** Per-shard state, only touched from that shard's executor thread. */
+    private final class ShardExecutor implements RingBuffer.Handler<ExecutionReport> {
+
+        private final Map<String, PendingFills> pendingFills = new LinkedHashMap<>();
+        private final Map<String, FillTotals> partiallyFilled = new HashMap<>();
+        private final List<String> expired = new ArrayList<>();
+
+        @Override
+        public void onEvent(ExecutionReport report, long sequence, boolean endOfBatch) {
+            try {
+                switch (report.getType()) {
+                    case FILLED -> pendingFills.computeIfAbsent(report.getOrderId(), id -> new PendingFills(report))
+                            .add(report);
+                    case RESTED -> {
+                        flush(report.getOrderId());
+                        onRested(report);
+                    }
+                    case REJECTED -> {
+                        flush(report.getOrderId());
+                        markRejected(report.getOrderId(), report.getSymbol());
+                    }
+                    case CANCELLED -> {
+                        flush(report.getOrderId());
+                        partiallyFilled.remove(report.getOrderId());
+                        log.debug("Order {} removed from book", report.getOrderId());
+                    }
+                    case EXPIRED -> {
+                        flush(report.getOrderId());
+                        partiallyFilled.remove(report.getOrderId());
+                        expired.add(report.getOrderId());
+                    }
+                }
+            } catch (Exception e) {
+                log.error("Error executing order: {}", report.getOrderId(), e);
+
+                // The book may still hold the order, so it is cancelled there too
+                partiallyFilled.remove(report.getOrderId());
+                abandon(report.getOrderId(), report.getSymbol());
+            }
+
+            if (endOfBatch) {
+                for (PendingFills fills : pendingFills.values()) {
+                    persist(fills);
+                }
+                pendingFills.clear();
+                if (!expired.isEmpty()) {
+                    markExpired(expired);
+                    expired.clear();
+                }
+            }
+        }
+
+        private void flush(String orderId) {
+            PendingFills fills = pendingFills.remove(orderId);
+            if (fills != null) {
+                persist(fills);
+            }
+        }
+
+        private void persist(PendingFills fills) {
+            // Kept until the write succeeds, so a retry or the next batch still continues from it
+            FillTotals previous = partiallyFilled.get(fills.orderId);
+            for (int attempt = 1; ; attempt++) {
+                try {
+                    FillTotals totals = onFilled(fills, previous);
+                    if (totals != null) {
+                        partiallyFilled.put(fills.orderId, totals);
+                    } else {
+                        partiallyFilled.remove(fills.orderId);
+                    }
+                    return;
+                } catch (Exception e) {
+                    if (attempt == FILL_WRITE_ATTEMPTS) {
+                        log.error("Error persisting fills for order {}, cancelling it", fills.orderId, e);
+                        partiallyFilled.remove(fills.orderId);
+                        abandon(fills.orderId, fills.symbol);
+                        return;
+                    }
+                    log.warn("Error persisting fills for order {}, attempt {} of {}", fills.orderId, attempt,
+                            FILL_WRITE_ATTEMPTS, e);
+                    backOff(attempt);
+                }
+            }
+        }
+    }
+
+    /** Persists and publishes one batch of fills; returns the running totals if the order is still open. */
+    private FillTotals onFilled(PendingFills fills, FillTotals previous) {
+        String orderId = fills.orderId;
+        // The order's terms price the trades, which are written with the fill; they do not change as it fills
+        Order order;
+        BigDecimal notional;
+        if (previous != null && previous.quantity == fills.filledBefore) {
+            order = previous.order;
+            notional = previous.notional;
+        } else {
+            order = mongoTemplate.findById(orderId, Order.class);
+            if (order == null) {
+                log.info("Dropping fills for order {} that no longer exists", orderId);
+                return null;
+            }
+            if (fills.filledBefore == 0) {
+                notional = BigDecimal.ZERO;
+            } else {
+                // First fill seen for this order since startup: recover the running total from the order
+                if (order.getFilledPrice() == null || !catchUp(fills, order)) {
+                    log.info("Dropping fills for order {} that no longer matches the book", orderId);
+                    return null;
+                }
+                notional = order.getFilledPrice().multiply(BigDecimal.valueOf(fills.filledBefore));
+            }
+        }
+
+        for (int i = 0; i < fills.size(); i++) {
+            notional = notional.add(Prices.fromTicks(fills.prices[i]).multiply(BigDecimal.valueOf(fills.quantities[i])));
+        }
+        long filledAfter = fills.filledBefore + fills.totalQuantity;
+        BigDecimal averagePrice = notional.divide(BigDecimal.valueOf(filledAfter), Prices.SCALE, RoundingMode.HALF_UP);
+        boolean complete = fills.leavesQuantity == 0;
+        LocalDateTime now = LocalDateTime.now();
+
+        Update update = new Update()
+                .set("status", complete ? Order.OrderStatus.FILLED : Order.OrderStatus.PARTIALLY_FILLED)
+                .set("filledQuantity", filledAfter)
+                .set("remainingQuantity", fills.leavesQuantity)
+                .set("filledPrice", averagePrice);
+        if (complete) {
+            update.set("filledAt", now);
+        }
+        if (fills.triggered) {
+            update.set("orderType", fills.orderType).set("triggeredAt", now);
+        }
+        // The trades go out through the order's outbox, stored by the same write as the fill, so a
+        // crash cannot persist one without the other
+        update.push("outbox").each(trades(fills, order, now).toArray());
+
+        Query query = Query.query(Criteria.where("_id").is(orderId)
+                .and("status").in(OPEN_STATUSES)
+                .and("filledQuantity").is(fills.filledBefore));
+        Order filled = mongoTemplate.findAndModify(query, update,
+                FindAndModifyOptions.options().returnNew(true), Order.class);
+        if (filled == null) {
+            // Fills replayed after a restart may already be partly persisted; retry with the rest
+            Order current = mongoTemplate.findById(orderId, Order.class);
+            if (current != null && current.getFilledQuantity() != null && current.getFilledQuantity() > fills.filledBefore
+                    && catchUp(fills, current)) {
+                return onFilled(fills, null);
+            }
+            log.info("Dropping fills for order {} that is no longer open", orderId);
+            return null;
+        }
+        outboxRelay.relay(filled);
+        for (int i = 0; i < fills.size(); i++) {
+            pipelineMetrics.recordSince(PipelineMetrics.HOP_TIME_TO_FILL, order.getPlacedAt());
+        }
+
+        log.info("Order {} {}: {} filled in {} fills, average price: {}", orderId, filled.getStatus(),
+                fills.totalQuantity, fills.size(), averagePrice);
+        return complete ? null : new FillTotals(filledAfter, notional, order);
+    }
+
+    /**
+     * One trade per fill; fees are charged and locked funds released pro rata, so both add up to
+     * the order's totals once filled.
+     */
+    private static List<OutboxMessage> trades(PendingFills fills, Order order, LocalDateTime now) {
+        List<OutboxMessage> trades = new ArrayList<>(fills.size());
+        long cumulative = fills.filledBefore;
+        for (int i = 0; i < fills.size(); i++) {
+            BigDecimal executionPrice = Prices.fromTicks(fills.prices[i]);
+            long quantity = fills.quantities[i];
+            BigDecimal fees = feesUpTo(order, cumulative + quantity).subtract(feesUpTo(order, cumulative));
+            BigDecimal released = order.getSide() == Order.OrderSide.BUY
+                    ? OrderLocks.lockedUpTo(order, cumulative + quantity).subtract(OrderLocks.lockedUpTo(order, cumulative))
+                    : null;
+            cumulative += quantity;
+
+            TradeExecutedEvent tradeEvent = TradeExecutedEvent.builder()
+                    .tradeId(UUID.randomUUID().toString())
+                    .orderId(order.getId())
+                    .userId(order.getUserId())
+                    .symbolId(order.getSymbolId())
+                    .symbol(fills.symbol)
+                    .side(order.getSide())
+                    .quantity(quantity)
+                    .executionPrice(executionPrice)
+                    .totalValue(executionPrice.multiply(BigDecimal.valueOf(quantity)))
+                    .fees(fees)
+                    .releasedAmount(released)
+                    .executedAt(now)
+                    .orderPlacedAt(order.getPlacedAt())
+                    .build();
+            trades.add(OutboxRelay.message("trade-events", tradeEvent.getTradeId(), tradeEvent));
+        }
+        return trades;
+    }
+
+    /**
+     * Drops the leading fills the order already has, if any.
+     *
+     * @return whether the remaining fills continue exactly where the persisted order left off
+     */
+    private static boolean catchUp(PendingFills fills, Order order) {
+        if (!OPEN_STATUSES.contains(order.getStatus()) || order.getFilledQuantity() == null) {
+            return false;
+        }
+        return fills.skipTo(order.getFilledQuantity());
+    }
+
+    private static BigDecimal feesUpTo(Order order, long filledQuantity) {
+        if (filledQuantity >= order.getQuantity()) {
+            return order.getFees();
+        }
+        return order.getFees().multiply(BigDecimal.valueOf(filledQuantity))
+                .divide(BigDecimal.valueOf(order.getQuantity()), Prices.SCALE, RoundingMode.HALF_UP);
+    }
+
+    private void onRested(ExecutionReport report) {
+        if (report.isTriggered()) {
+            // Persist the stop -> limit/market conversion so a restart restores it as such
+            mongoTemplate.updateFirst(
+                    Query.query(Criteria.where("_id").is(report.getOrderId()).and("status").in(OPEN_STATUSES)),
+                    new Update().set("orderType", report.getOrderType()).set("triggeredAt", LocalDateTime.now()),
+                    Order.class);
+        }
+        log.debug("Order {} resting in book at price: {}", report.getOrderId(), Prices.fromTicks(report.getPriceTicks()));
+    }
+
+    /** Closes a batch of expired orders that are still open and releases what they had locked. */
+    private void markExpired(List<String> orderIds) {
+        try {
+            // Stored with millisecond precision, so the stamp can be matched when reading back
+            LocalDateTime stamp = LocalDateTime.now().truncatedTo(ChronoUnit.MILLIS);
+            UpdateResult result = mongoTemplate.updateMulti(
+                    Query.query(Criteria.where("_id").in(orderIds).and("status").in(OPEN_STATUSES)),
+                    new Update().set("status", Order.OrderStatus.EXPIRED).set("expiredAt", stamp), Order.class);
+            if (result.getModifiedCount() == 0) {
+                return;
+            }
+            // Only the orders this update expired; one cancelled meanwhile has had its lock released already
+            List<Order> orders = mongoTemplate.find(
+                    Query.query(Criteria.where("_id").in(orderIds).and("status").is(Order.OrderStatus.EXPIRED)
+                            .and("expiredAt").is(stamp)), Order.class);
+            portfolioService.releaseUnfilled(orders);
+            log.info("Expired {} orders", orders.size());
+        } catch (Exception e) {
+            log.error("Error expiring orders: {}", orderIds, e);
+        }
+    }
+
+    /**
+     * Rejects an order that has not filled yet and releases everything it locked at placement. The
+     * user is told through portfolio-updates, from the order's outbox.
+     */
+    private void markRejected(String orderId, String symbol) {
+        try {
+            Order order = mongoTemplate.findById(orderId, Order.class);
+            if (order == null || order.getStatus() != Order.OrderStatus.PENDING) {
+                return;
+            }
+            Order rejected = close(order, Order.OrderStatus.REJECTED, statusChange(order, symbol, "ORDER_REJECTED"));
+            if (rejected == null) {
+                // Filled or cancelled meanwhile, which released or settles the locks itself
+                return;
+            }
+            outboxRelay.relay(rejected);
+            portfolioService.releaseUnfilled(List.of(rejected));
+            log.info("Order {} rejected", orderId);
+        } catch (Exception e) {
+            log.error("Error rejecting order: {}", orderId, e);
+        }
+    }
+
+    /**
+     * Cancels an order whose fills could not be stored: the book is told through order-events, as
+     * for a user's cancel, and the locks of everything not stored as filled are released. Fills the
+     * engine made but that were not stored go with it.
+     */
+    private void abandon(String orderId, String symbol) {
+        try {
+            Order order = mongoTemplate.findById(orderId, Order.class);
+            if (order == null || !OPEN_STATUSES.contains(order.getStatus())) {
+                return;
+            }
+            OrderCancelledEvent event = OrderCancelledEvent.builder()
+                    .orderId(orderId)
+                    .userId(order.getUserId())
+                    .symbolId(order.getSymbolId())
+                    .createdAt(LocalDateTime.now())
+                    .build();
+            Order cancelled = close(order, Order.OrderStatus.CANCELLED,
+                    OutboxRelay.message("order-events", order.getSymbolId(), event),
+                    statusChange(order, symbol, "ORDER_CANCELLED"));
+            if (cancelled == null) {
+                return;
+            }
+            outboxRelay.relay(cancelled);
+            portfolioService.releaseUnfilled(List.of(cancelled));
+            log.warn("Order {} cancelled after its fills could not be stored", orderId);
+        } catch (Exception e) {
+            log.error("Error cancelling order: {}", orderId, e);
+        }
+    }
+
+    private static void backOff(int attempt) {
+        try {
+            Thread.sleep(FILL_RETRY_BACKOFF_MS * attempt);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Moves an order out of the status and filled quantity it was read with, adding {@code messages}
+     * to its outbox; null if it changed since, in which case whoever changed it owns its locks.
+     */
+    private Order close(Order order, Order.OrderStatus status, OutboxMessage... messages) {
+        Query query = Query.query(Criteria.where("_id").is(order.getId())
+                .and("status").is(order.getStatus())
+                .and("filledQuantity").is(order.getFilledQuantity()));
+        Update update = new Update().set("status", status);
+        update.push("outbox").each((Object[]) messages);
+        return mongoTemplate.findAndModify(query, update, FindAndModifyOptions.options().returnNew(true), Order.class);
+    }
+
+    private static OutboxMessage statusChange(Order order, String symbol, String eventType) {
+        LocalDateTime now = LocalDateTime.now();
+        PortfolioUpdateEvent event = PortfolioUpdateEvent.builder()
+                .userId(order.getUserId())
+                .symbolId(order.getSymbolId())
+                .symbol(symbol)
+                .eventType(eventType)
+                .timestamp(now)
+                .createdAt(now)
+                .build();
+        return OutboxRelay.message("portfolio-updates", order.getUserId(), event);
+    }
+
+    /** Fills for one order collected from the current batch, copied out of the reused report slots. */
+    private static final class PendingFills {
+        private final String orderId;
+        private final String symbol;
+        private long filledBefore;
+        private Order.OrderType orderType;
+        private boolean triggered;
+        private long totalQuantity;
+        private long leavesQuantity;
+        private long[] quantities = new long[4];
+        private long[] prices = new long[4];
+        private int count;
+
+        PendingFills(ExecutionReport first) {
+            this.orderId = first.getOrderId();
+            this.symbol = first.getSymbol();
+            this.filledBefore = first.getCumulativeQuantity() - first.getQuantity();
+        }
+
+        void add(ExecutionReport report) {
+            if (count == quantities.length) {
+                quantities = Arrays.copyOf(quantities, count * 2);
+                prices = Arrays.copyOf(prices, count * 2);
+            }
+            quantities[count] = report.getQuantity();
+            prices[count] = report.getPriceTicks();
+            count++;
+            totalQuantity += report.getQuantity();
+            leavesQuantity = report.getLeavesQuantity();
+            orderType = report.getOrderType();
+            triggered |= report.isTriggered();
+        }
+
+        int size() {
+            return count;
+        }
+
+        /** Drops leading fills up to {@code filledQuantity}; false unless that lands between two fills. */
+        boolean skipTo(long filledQuantity) {
+            int skip = 0;
+            long skipped = 0;
+            while (skip < count && filledBefore + skipped < filledQuantity) {
+                skipped += quantities[skip++];
+            }
+            if (skip == count || filledBefore + skipped != filledQuantity) {
+                return false;
+            }
+            System.arraycopy(quantities, skip, quantities, 0, count - skip);
+            System.arraycopy(prices, skip, prices, 0, count - skip);
+            count -= skip;
+            filledBefore += skipped;
+            totalQuantity -= skipped;
+            return true;
+        }
+    }
+
+    private record FillTotals(long quantity, BigDecimal notional, Order order) {
+    }
+}
@@ -1,23 +1,39 @@
 package com.stockbrokerage.service;
 
+import com.stockbrokerage.dto.BatchOrderResponse;
+import com.stockbrokerage.dto.BatchOrderResult;
 import com.stockbrokerage.dto.OrderRequest;
 import com.stockbrokerage.dto.OrderResponse;
+import com.stockbrokerage.engine.Prices;
 import com.stockbrokerage.entity.Order;
 import com.stockbrokerage.entity.Symbol;
-import com.stockbrokerage.entity.User;
+import com.stockbrokerage.events.OrderCancelledEvent;
 import com.stockbrokerage.events.OrderPlacedEvent;
+import com.stockbrokerage.kafka.OutboxRelay;
+import com.stockbrokerage.metrics.PipelineMetrics;
 import com.stockbrokerage.repository.OrderRepository;
-import com.stockbrokerage.repository.SymbolRepository;
+import com.stockbrokerage.risk.AccountState;
+import com.stockbrokerage.risk.AccountStateCache;
+import com.stockbrokerage.symbols.SymbolRegistry;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.bson.types.ObjectId;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
-import org.springframework.kafka.core.KafkaTemplate;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
 import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.time.LocalDate;
 import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
 
 @Service
 @RequiredArgsConstructor
@@ -25,45 +41,164 @@ import java.time.LocalDateTime;
 public class OrderService {
     
     private final OrderRepository orderRepository;
-    private final SymbolRepository symbolRepository;
-    private final UserService userService;
+    private final SymbolRegistry symbolRegistry;
+    private final AccountStateCache accountStateCache;
     private final PortfolioService portfolioService;
-    private final KafkaTemplate<String, Object> kafkaTemplate;
+    private final MarketDataService marketDataService;
+    private final PipelineMetrics pipelineMetrics;
+    private final OutboxRelay outboxRelay;
+    
+    @Value("${app.trading.market-hours.end:16:00}")
+    private LocalTime marketClose;
+    
+    @Value("${app.trading.gtc-days:30}")
+    private int gtcDays;
+    
+    @Value("${app.risk.market-collar:0.05}")
+    private BigDecimal defaultMarketCollar;
     
     @Transactional
     public OrderResponse placeOrder(OrderRequest request, String userId) {
-        // Validate user
-        User user = userService.findById(userId);
-        if (user.getStatus() != User.UserStatus.ACTIVE) {
+        return pipelineMetrics.timePlacement(() -> placeTimedOrder(request, userId));
+    }
+    
+    private OrderResponse placeTimedOrder(OrderRequest request, String userId) {
+        // Validate user against the in-memory account state
+        AccountState account = pipelineMetrics.timeStage(PipelineMetrics.STAGE_USER_LOOKUP,
+                () -> accountStateCache.get(userId));
+        if (!account.isActive()) {
             throw new RuntimeException("User account is not active");
         }
         
         // Validate symbol
-        Symbol symbol = symbolRepository.findBySymbol(request.getSymbol())
-                .orElseThrow(() -> new RuntimeException("Symbol not found: " + request.getSymbol()));
-        
-        // Validate order
-        validateOrder(request);
-        
-        // Check sufficient funds/holdings
-        validateSufficientFundsOrHoldings(request, userId, symbol);
+        Symbol symbol = pipelineMetrics.timeStage(PipelineMetrics.STAGE_SYMBOL_LOOKUP,
+                () -> symbolRegistry.findByTicker(request.getSymbol())
+                        .orElseThrow(() -> new RuntimeException("Symbol not found: " + request.getSymbol())));
         
-        // Create order
-        Order order = createOrder(request, userId, symbol.getId());
+        // Validate and create order
+        Order created = pipelineMetrics.timeStage(PipelineMetrics.STAGE_VALIDATION, () -> {
+            validateOrder(request);
+            return createOrder(request, userId, symbol);
+        });
         
-        // Lock funds/holdings
-        lockFundsOrHoldings(order);
+        // Check and lock funds/holdings in one atomic step
+        pipelineMetrics.timeStage(PipelineMetrics.STAGE_LOCK, () -> lockFundsOrHoldings(created));
         
-        // Save order
-        order = orderRepository.save(order);
+        // Save order, with its order event in the same write
+        addOrderEvent(created, symbol.getSymbol());
+        Order order;
+        try {
+            order = pipelineMetrics.timeStage(PipelineMetrics.STAGE_SAVE, () -> orderRepository.insert(created));
+        } catch (RuntimeException e) {
+            releaseLock(created);
+            throw e;
+        }
         
-        // Publish order event to Kafka
-        publishOrderEvent(order);
+        // Hand the order event to the relay for Kafka
+        pipelineMetrics.timeStage(PipelineMetrics.STAGE_OUTBOX, () -> outboxRelay.relay(order));
         
         log.info("Order placed successfully: {}", order.getId());
         return mapToOrderResponse(order, symbol.getSymbol());
     }
     
+    /**
+     * Places a basket of orders against one read of the account: funds and holdings are checked
+     * with a running balance, funds are locked once for the total, accepted orders are inserted in
+     * one bulk write with their events, which the outbox relay publishes together. Each order is
+     * accepted or rejected on its own; only account-level failures reject the whole batch.
+     */
+    @Transactional
+    public BatchOrderResponse placeOrders(List<OrderRequest> requests, String userId) {
+        // Validate user against the in-memory account state
+        AccountState account = accountStateCache.get(userId);
+        if (!account.isActive()) {
+            throw new RuntimeException("User account is not active");
+        }
+        
+        List<String> tickers = requests.stream().filter(Objects::nonNull).map(OrderRequest::getSymbol).filter(Objects::nonNull)
+                .distinct().toList();
+        Map<String, Symbol> symbols = new HashMap<>();
+        tickers.forEach(ticker -> symbolRegistry.findByTicker(ticker).ifPresent(symbol -> symbols.put(ticker, symbol)));
+        
+        // One snapshot of the account; holdings are only read if the basket sells anything
+        BigDecimal availableFunds = portfolioService.getAvailableBalance(userId);
+        Map<String, Long> availableHoldings = requests.stream().anyMatch(r -> r != null && r.getSide() == Order.OrderSide.SELL)
+                ? new HashMap<>(portfolioService.getHoldingQuantities(userId))
+                : Map.of();
+        
+        BatchOrderResult[] results = new BatchOrderResult[requests.size()];
+        List<Order> accepted = new ArrayList<>();
+        List<Integer> acceptedIndexes = new ArrayList<>();
+        BigDecimal totalToLock = BigDecimal.ZERO;
+        Map<String, Long> holdingsToLock = new HashMap<>();
+        
+        for (int i = 0; i < requests.size(); i++) {
+            OrderRequest request = requests.get(i);
+            try {
+                if (request == null || request.getSymbol() == null || request.getOrderType() == null
+                        || request.getSide() == null || request.getQuantity() == null) {
+                    throw new RuntimeException("Symbol, order type, side and quantity are required");
+                }
+                Symbol symbol = symbols.get(request.getSymbol());
+                if (symbol == null) {
+                    throw new RuntimeException("Symbol not found: " + request.getSymbol());
+                }
+                validateOrder(request);
+                
+                Order order = createOrder(request, userId, symbol);
+                addOrderEvent(order, symbol.getSymbol());
+                if (order.getSide() == Order.OrderSide.BUY) {
+                    BigDecimal required = order.getLockedAmount();
+                    if (availableFunds.compareTo(required) < 0) {
+                        throw new RuntimeException("Insufficient funds. Required: " + required +
+                                ", Available: " + availableFunds);
+                    }
+                    availableFunds = availableFunds.subtract(required);
+                    totalToLock = totalToLock.add(required);
+                } else {
+                    long held = availableHoldings.getOrDefault(symbol.getId(), 0L);
+                    if (held < order.getQuantity()) {
+                        throw new RuntimeException("Insufficient holdings. Required: " + order.getQuantity() +
+                                ", Available: " + held);
+                    }
+                    availableHoldings.put(symbol.getId(), held - order.getQuantity());
+                    holdingsToLock.merge(symbol.getId(), order.getQuantity(), Long::sum);
+                }
+                accepted.add(order);
+                acceptedIndexes.add(i);
+            } catch (RuntimeException e) {
+                results[i] = BatchOrderResult.builder().index(i).accepted(false).error(e.getMessage()).build();
+            }
+        }
+        
+        if (!accepted.isEmpty()) {
+            // Lock funds once for the whole basket, and holdings once per symbol sold
+            lockBasket(userId, totalToLock, holdingsToLock);
+            List<Order> saved;
+            try {
+                saved = orderRepository.insert(accepted);
+            } catch (RuntimeException e) {
+                unlockBasket(userId, totalToLock, holdingsToLock);
+                throw e;
+            }
+            
+            for (int j = 0; j < saved.size(); j++) {
+                Order order = saved.get(j);
+                String ticker = requests.get(acceptedIndexes.get(j)).getSymbol();
+                outboxRelay.relay(order);
+                results[acceptedIndexes.get(j)] = BatchOrderResult.builder().index(acceptedIndexes.get(j))
+                        .accepted(true).order(mapToOrderResponse(order, ticker)).build();
+            }
+        }
+        
+        log.info("Batch of {} orders placed for user {}: {} accepted", requests.size(), userId, accepted.size());
+        return BatchOrderResponse.builder()
+                .accepted(accepted.size())
+                .rejected(requests.size() - accepted.size())
+                .results(List.of(results))
+                .build();
+    }
+    
     private void validateOrder(OrderRequest request) {
         if (request.getOrderType() == Order.OrderType.LIMIT && request.getPrice() == null) {
             throw new RuntimeException("Price is required for limit orders");
@@ -73,86 +208,159 @@ public class OrderService {
             throw new RuntimeException("Stop price is required for stop-loss orders");
         }
         
+        if (request.getOrderType() == Order.OrderType.STOP_LIMIT
+                && (request.getStopPrice() == null || request.getPrice() == null)) {
+            throw new RuntimeException("Stop price and limit price are required for stop-limit orders");
+        }
+        
         if (request.getQuantity() <= 0) {
             throw new RuntimeException("Quantity must be positive");
         }
+        
+        if (request.getTimeInForce() == Order.TimeInForce.GTD) {
+            if (request.getExpiresAt() == null || !request.getExpiresAt().isAfter(LocalDateTime.now())) {
+                throw new RuntimeException("A future expiry time is required for good-till-date orders");
+            }
+            if (request.getExpiresAt().isAfter(LocalDateTime.now().plusDays(gtcDays))) {
+                throw new RuntimeException("Good-till-date orders can expire at most " + gtcDays + " days ahead");
+            }
+        } else if (request.getExpiresAt() != null) {
+            throw new RuntimeException("Expiry time is only allowed for good-till-date orders");
+        }
     }
     
-    private void validateSufficientFundsOrHoldings(OrderRequest request, String userId, Symbol symbol) {
-        if (request.getSide() == Order.OrderSide.BUY) {
-            BigDecimal requiredAmount = calculateRequiredAmount(request);
-            portfolioService.validateSufficientFunds(userId, requiredAmount);
+    private BigDecimal calculateRequiredAmount(OrderRequest request, Symbol symbol) {
+        BigDecimal quantity = BigDecimal.valueOf(request.getQuantity());
+        if (request.getOrderType() == Order.OrderType.MARKET) {
+            BigDecimal lastPrice = marketDataService.getLastPrice(symbol.getId());
+            if (lastPrice == null) {
+                throw new RuntimeException("No market price available for " + symbol.getSymbol());
+            }
+            return withCollar(request.getSide(), symbol, lastPrice).multiply(quantity);
+        } else if (request.getOrderType() == Order.OrderType.STOP_LOSS) {
+            // Stop-loss executes at market once triggered, so it gets the same headroom over its stop price
+            return withCollar(request.getSide(), symbol, request.getStopPrice()).multiply(quantity);
         } else {
-            portfolioService.validateSufficientHoldings(userId, symbol.getId(), request.getQuantity());
+            return request.getPrice().multiply(quantity);
         }
     }
     
-    private BigDecimal calculateRequiredAmount(OrderRequest request) {
-        if (request.getOrderType() == Order.OrderType.MARKET) {
-            // For market orders, we'll use a buffer (last price * 1.05)
-            // In real implementation, this would be based on current market price
-            return BigDecimal.valueOf(100).multiply(BigDecimal.valueOf(request.getQuantity()));
-        } else {
-            return request.getPrice().multiply(BigDecimal.valueOf(request.getQuantity()));
+    /** Adds the symbol's collar to a buy's reference price; sells are valued at the price itself. */
+    private BigDecimal withCollar(Order.OrderSide side, Symbol symbol, BigDecimal price) {
+        if (side != Order.OrderSide.BUY) {
+            return price;
         }
+        BigDecimal collar = symbol.getMarketCollar() != null ? symbol.getMarketCollar() : defaultMarketCollar;
+        return price.multiply(BigDecimal.ONE.add(collar)).setScale(Prices.SCALE, RoundingMode.HALF_UP);
     }
     
-    private Order createOrder(OrderRequest request, String userId, String symbolId) {
-        BigDecimal orderValue = calculateRequiredAmount(request);
+    private Order createOrder(OrderRequest request, String userId, Symbol symbol) {
+        BigDecimal orderValue = calculateRequiredAmount(request, symbol);
         BigDecimal fees = orderValue.multiply(BigDecimal.valueOf(0.001)); // 0.1% fee
+        Order.TimeInForce timeInForce = request.getTimeInForce() != null ? request.getTimeInForce() : Order.TimeInForce.GTC;
         
         return Order.builder()
+                .id(new ObjectId().toHexString()) // assigned up front so the order event can carry it
                 .userId(userId)
-                .symbolId(symbolId)
+                .symbolId(symbol.getId())
                 .orderType(request.getOrderType())
                 .side(request.getSide())
                 .quantity(request.getQuantity())
                 .price(request.getPrice())
                 .stopPrice(request.getStopPrice())
+                .timeInForce(timeInForce)
                 .status(Order.OrderStatus.PENDING)
+                .placedAt(LocalDateTime.now())
                 .filledQuantity(0L)
+                .remainingQuantity(request.getQuantity())
                 .orderValue(orderValue)
                 .fees(fees)
-                .expiresAt(LocalDateTime.now().plusDays(30)) // 30 days expiry
+                .lockedAmount(request.getSide() == Order.OrderSide.BUY ? orderValue.add(fees) : null)
+                .expiresAt(expiryOf(timeInForce, request.getExpiresAt()))
                 .build();
     }
     
+    /** When the matching engine should expire an order; every order gets a deadline. */
+    private LocalDateTime expiryOf(Order.TimeInForce timeInForce, LocalDateTime requested) {
+        LocalDateTime now = LocalDateTime.now();
+        return switch (timeInForce) {
+            case GTD -> requested;
+            case GTC -> now.plusDays(gtcDays);
+            case DAY -> {
+                // Placed after the close, a day order lives until the next session's close
+                LocalDateTime close = LocalDate.now().atTime(marketClose);
+                yield now.isBefore(close) ? close : close.plusDays(1);
+            }
+        };
+    }
+    
     private void lockFundsOrHoldings(Order order) {
         if (order.getSide() == Order.OrderSide.BUY) {
-            portfolioService.lockFunds(order.getUserId(), order.getOrderValue().add(order.getFees()));
+            portfolioService.lockFunds(order.getUserId(), order.getLockedAmount(), order.getId());
         } else {
             portfolioService.lockHoldings(order.getUserId(), order.getSymbolId(), order.getQuantity());
         }
     }
     
-    private void publishOrderEvent(Order order) {
+    /** Locks everything a basket needs, or nothing if any part of it is no longer available. */
+    private void lockBasket(String userId, BigDecimal funds, Map<String, Long> holdings) {
+        if (funds.signum() > 0) {
+            portfolioService.lockFunds(userId, funds, null);
+        }
+        Map<String, Long> locked = new HashMap<>();
+        try {
+            for (Map.Entry<String, Long> entry : holdings.entrySet()) {
+                portfolioService.lockHoldings(userId, entry.getKey(), entry.getValue());
+                locked.put(entry.getKey(), entry.getValue());
+            }
+        } catch (RuntimeException e) {
+            unlockBasket(userId, funds, locked);
+            throw e;
+        }
+    }
+    
+    private void unlockBasket(String userId, BigDecimal funds, Map<String, Long> holdings) {
+        if (funds.signum() > 0) {
+            portfolioService.releaseFunds(userId, funds, null);
+        }
+        holdings.forEach((symbolId, quantity) -> portfolioService.releaseHoldings(userId, symbolId, quantity));
+    }
+    
+    private void addOrderEvent(Order order, String ticker) {
         OrderPlacedEvent event = OrderPlacedEvent.builder()
                 .orderId(order.getId())
                 .userId(order.getUserId())
                 .symbolId(order.getSymbolId())
+                .symbol(ticker)
                 .orderType(order.getOrderType())
                 .side(order.getSide())
                 .quantity(order.getQuantity())
                 .price(order.getPrice())
+                .stopPrice(order.getStopPrice())
+                .expiresAt(order.getExpiresAt())
+                .createdAt(LocalDateTime.now())
                 .build();
         
-        kafkaTemplate.send("order-events", event);
+        // Keyed by symbol: a symbol's orders and cancels share a partition, so one consumer sees
+        // all of them, in order
+        order.setOutbox(List.of(OutboxRelay.message("order-events", order.getSymbolId(), event)));
     }
     
     public Page<OrderResponse> getUserOrders(String userId, Pageable pageable) {
         Page<Order> orders = orderRepository.findByUserIdOrderByPlacedAtDesc(userId, pageable);
-        return orders.map(order -> {
-            Symbol symbol = symbolRepository.findById(order.getSymbolId()).orElse(null);
-            return mapToOrderResponse(order, symbol != null ? symbol.getSymbol() : "UNKNOWN");
-        });
+        return orders.map(order -> mapToOrderResponse(order, tickerOf(order)));
     }
     
     public OrderResponse getOrderById(String orderId, String userId) {
         Order order = orderRepository.findByIdAndUserId(orderId, userId)
                 .orElseThrow(() -> new RuntimeException("Order not found"));
         
-        Symbol symbol = symbolRepository.findById(order.getSymbolId()).orElse(null);
-        return mapToOrderResponse(order, symbol != null ? symbol.getSymbol() : "UNKNOWN");
+        return mapToOrderResponse(order, tickerOf(order));
+    }
+    
+    private String tickerOf(Order order) {
+        String ticker = symbolRegistry.ticker(order.getSymbolId());
+        return ticker != null ? ticker : "UNKNOWN";
     }
     
     @Transactional
@@ -160,25 +368,32 @@ public class OrderService {
         Order order = orderRepository.findByIdAndUserId(orderId, userId)
                 .orElseThrow(() -> new RuntimeException("Order not found"));
         
-        if (order.getStatus() != Order.OrderStatus.PENDING) {
+        if (order.getStatus() != Order.OrderStatus.PENDING && order.getStatus() != Order.OrderStatus.PARTIALLY_FILLED) {
             throw new RuntimeException("Cannot cancel order with status: " + order.getStatus());
         }
         
-        order.setStatus(Order.OrderStatus.CANCELLED);
-        orderRepository.save(order);
+        // Conditional write: a fill persisted in the meantime wins and the cancel is refused,
+        // so the unfilled quantity released below is exactly what was cancelled. The book is told
+        // through order-events, behind the order itself, by whichever consumer holds the symbol
+        OrderCancelledEvent event = OrderCancelledEvent.builder()
+                .orderId(orderId)
+                .userId(userId)
+                .symbolId(order.getSymbolId())
+                .createdAt(LocalDateTime.now())
+                .build();
+        Order cancelled = orderRepository.cancelIfUnchanged(orderId, userId, order.getFilledQuantity(),
+                        OutboxRelay.message("order-events", order.getSymbolId(), event))
+                .orElseThrow(() -> new RuntimeException("Order was filled or changed while cancelling, please retry"));
+        outboxRelay.relay(cancelled);
         
-        // Release locked funds/holdings
+        // Release locked funds/holdings for the unfilled part
         releaseLock(order);
         
         log.info("Order cancelled successfully: {}", orderId);
     }
     
     private void releaseLock(Order order) {
-        if (order.getSide() == Order.OrderSide.BUY) {
-            portfolioService.releaseFunds(order.getUserId(), order.getOrderValue().add(order.getFees()));
-        } else {
-            portfolioService.releaseHoldings(order.getUserId(), order.getSymbolId(), order.getQuantity());
-        }
+        portfolioService.releaseUnfilled(List.of(order));
     }
     
     private OrderResponse mapToOrderResponse(Order order, String symbol) {
@@ -190,13 +405,18 @@ public class OrderService {
                 .quantity(order.getQuantity())
                 .price(order.getPrice())
                 .stopPrice(order.getStopPrice())
+                .timeInForce(order.getTimeInForce())
                 .status(order.getStatus())
                 .filledQuantity(order.getFilledQuantity())
+                .remainingQuantity(order.getRemainingQuantity())
                 .filledPrice(order.getFilledPrice())
                 .orderValue(order.getOrderValue())
                 .fees(order.getFees())
                 .placedAt(order.getPlacedAt())
                 .filledAt(order.getFilledAt())
+                .triggeredAt(order.getTriggeredAt())
+                .expiresAt(order.getExpiresAt())
+                .expiredAt(order.getExpiredAt())
                 .build();
     }
 }
\ No newline at end of file
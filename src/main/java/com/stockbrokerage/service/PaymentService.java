@@ -2,13 +2,14 @@ package com.stockbrokerage.service;
 
 import com.stockbrokerage.dto.DepositRequest;
 import com.stockbrokerage.dto.WithdrawRequest;
+import com.stockbrokerage.entity.LedgerEntry;
 import com.stockbrokerage.entity.Transaction;
 import com.stockbrokerage.entity.User;
-import com.stockbrokerage.entity.Wallet;
 import com.stockbrokerage.repository.TransactionRepository;
-import com.stockbrokerage.repository.WalletRepository;
+import com.stockbrokerage.risk.AccountStateCache;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.bson.types.ObjectId;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
@@ -22,7 +23,7 @@ import java.util.UUID;
 @Slf4j
 public class PaymentService {
     
-    private final WalletRepository walletRepository;
+    private final AccountStateCache accountStateCache;
     private final TransactionRepository transactionRepository;
     private final UserService userService;
     
@@ -41,11 +42,7 @@ public class PaymentService {
         String transactionId = processPayment(request);
         
         // Update wallet balance
-        Wallet wallet = walletRepository.findByUserId(userId)
-                .orElseThrow(() -> new RuntimeException("Wallet not found"));
-        
-        wallet.setBalance(wallet.getBalance().add(request.getAmount()));
-        walletRepository.save(wallet);
+        accountStateCache.adjustBalance(userId, request.getAmount(), LedgerEntry.EntryType.DEPOSIT, transactionId);
         
         // Create transaction record
         Transaction transaction = Transaction.builder()
@@ -77,23 +74,23 @@ public class PaymentService {
             throw new RuntimeException("Withdrawal amount must be positive");
         }
         
-        Wallet wallet = walletRepository.findByUserId(userId)
-                .orElseThrow(() -> new RuntimeException("Wallet not found"));
-        
-        BigDecimal availableBalance = wallet.getBalance().subtract(wallet.getLockedBalance());
-        if (availableBalance.compareTo(request.getAmount()) < 0) {
-            throw new RuntimeException("Insufficient funds for withdrawal");
-        }
+        // Debit first: the check against locked funds and the debit are one atomic step
+        // The transaction's id is assigned upfront, so the ledger entries can refer to it
+        String reference = new ObjectId().toHexString();
+        accountStateCache.withdraw(userId, request.getAmount(), reference);
         
         // Simulate withdrawal processing
-        String transactionId = processWithdrawal(request);
-        
-        // Update wallet balance
-        wallet.setBalance(wallet.getBalance().subtract(request.getAmount()));
-        walletRepository.save(wallet);
+        String transactionId;
+        try {
+            transactionId = processWithdrawal(request);
+        } catch (RuntimeException e) {
+            accountStateCache.adjustBalance(userId, request.getAmount(), LedgerEntry.EntryType.REVERSAL, reference);
+            throw e;
+        }
         
         // Create transaction record
         Transaction transaction = Transaction.builder()
+                .id(reference)
                 .userId(userId)
                 .transactionId(transactionId)
                 .type(Transaction.TransactionType.WITHDRAWAL)
@@ -103,7 +100,7 @@ public class PaymentService {
                 .description("Withdrawal via " + request.getPaymentMethod())
                 .build();
         
-        transaction = transactionRepository.save(transaction);
+        transaction = transactionRepository.insert(transaction);
         
         log.info("Withdrawal completed for user: {} amount: {} transaction: {}", 
                 userId, request.getAmount(), transactionId);
@@ -122,11 +119,7 @@ public class PaymentService {
     
     @Transactional
     public void recordTradeFee(String userId, BigDecimal feeAmount, String orderId) {
-        Wallet wallet = walletRepository.findByUserId(userId)
-                .orElseThrow(() -> new RuntimeException("Wallet not found"));
-        
-        wallet.setBalance(wallet.getBalance().subtract(feeAmount));
-        walletRepository.save(wallet);
+        accountStateCache.adjustBalance(userId, feeAmount.negate(), LedgerEntry.EntryType.FEE, orderId);
         
         Transaction transaction = Transaction.builder()
                 .userId(userId)
@@ -146,17 +139,12 @@ public class PaymentService {
     @Transactional
     public void recordTradeSettlement(String userId, BigDecimal amount, 
                                      Transaction.TransactionType type, String orderId) {
-        Wallet wallet = walletRepository.findByUserId(userId)
-                .orElseThrow(() -> new RuntimeException("Wallet not found"));
-        
         if (type == Transaction.TransactionType.BUY_SETTLEMENT) {
-            wallet.setBalance(wallet.getBalance().subtract(amount));
+            accountStateCache.adjustBalance(userId, amount.negate(), LedgerEntry.EntryType.SETTLEMENT, orderId);
         } else if (type == Transaction.TransactionType.SELL_SETTLEMENT) {
-            wallet.setBalance(wallet.getBalance().add(amount));
+            accountStateCache.adjustBalance(userId, amount, LedgerEntry.EntryType.SETTLEMENT, orderId);
         }
         
-        walletRepository.save(wallet);
-        
         Transaction transaction = Transaction.builder()
                 .userId(userId)
                 .transactionId(UUID.randomUUID().toString())
@@ -0,0 +1,56 @@
+package com.stockbrokerage.service;
+
+import com.stockbrokerage.dto.PortfolioHistoryPoint;
+import com.stockbrokerage.entity.PortfolioHistory;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.stereotype.Service;
+
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+import java.time.YearMonth;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Reads the account value history written by {@link com.stockbrokerage.history.PortfolioHistoryJob},
+ * decoding each month's delta-encoded snapshots back into points.
+ */
+@Service
+@RequiredArgsConstructor
+@Slf4j
+public class PortfolioHistoryService {
+    
+    private final MongoTemplate mongoTemplate;
+    
+    /** Snapshots from the start of {@code from} to the end of {@code to}, oldest first. */
+    public List<PortfolioHistoryPoint> getHistory(String userId, YearMonth from, YearMonth to) {
+        Query query = Query.query(Criteria.where("userId").is(userId)
+                        .and("month").gte(from.toString()).lte(to.toString()))
+                .with(Sort.by(Sort.Direction.ASC, "month"));
+        query.fields().include("start").include("times").include("values").include("cash");
+        
+        List<PortfolioHistoryPoint> points = new ArrayList<>();
+        for (PortfolioHistory month : mongoTemplate.find(query, PortfolioHistory.class)) {
+            LocalDateTime time = month.getStart();
+            long value = 0;
+            long cash = 0;
+            for (int i = 0; i < month.getTimes().size(); i++) {
+                time = time.plusSeconds(month.getTimes().get(i));
+                value += month.getValues().get(i);
+                cash += month.getCash().get(i);
+                points.add(PortfolioHistoryPoint.builder()
+                        .time(time)
+                        .portfolioValue(BigDecimal.valueOf(value, 2))
+                        .cash(BigDecimal.valueOf(cash, 2))
+                        .totalValue(BigDecimal.valueOf(value + cash, 2))
+                        .build());
+            }
+        }
+        return points;
+    }
+}
@@ -2,23 +2,25 @@ package com.stockbrokerage.service;
 
 import com.stockbrokerage.dto.HoldingResponse;
 import com.stockbrokerage.dto.PortfolioSummary;
+import com.stockbrokerage.dto.PortfolioValuation;
 import com.stockbrokerage.entity.Holding;
+import com.stockbrokerage.entity.LedgerEntry;
 import com.stockbrokerage.entity.Order;
 import com.stockbrokerage.entity.Symbol;
-import com.stockbrokerage.entity.Wallet;
 import com.stockbrokerage.repository.HoldingRepository;
-import com.stockbrokerage.repository.SymbolRepository;
-import com.stockbrokerage.repository.WalletRepository;
+import com.stockbrokerage.risk.AccountState;
+import com.stockbrokerage.risk.AccountStateCache;
+import com.stockbrokerage.risk.OrderLocks;
+import com.stockbrokerage.symbols.SymbolRegistry;
+import com.stockbrokerage.valuation.ValuationEngine;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
-import org.springframework.cache.annotation.Cacheable;
-import org.springframework.cache.annotation.CacheEvict;
 import org.springframework.stereotype.Service;
-import org.springframework.transaction.annotation.Transactional;
 
 import java.math.BigDecimal;
 import java.math.RoundingMode;
 import java.util.List;
+import java.util.Map;
 import java.util.stream.Collectors;
 
 @Service
@@ -26,95 +28,56 @@ import java.util.stream.Collectors;
 @Slf4j
 public class PortfolioService {
     
-    private final WalletRepository walletRepository;
     private final HoldingRepository holdingRepository;
-    private final SymbolRepository symbolRepository;
+    private final SymbolRegistry symbolRegistry;
     private final MarketDataService marketDataService;
+    private final AccountStateCache accountStateCache;
+    private final ValuationEngine valuationEngine;
     
-    @Cacheable(value = "portfolioSummary", key = "#userId")
+    /**
+     * Holdings and their value come from the valuation engine, which keeps them current from fills
+     * and ticks; cash and reserved shares from the account state cache.
+     */
     public PortfolioSummary getPortfolioSummary(String userId) {
-        Wallet wallet = getWallet(userId);
-        List<Holding> holdings = holdingRepository.findByUserId(userId);
-        
-        BigDecimal totalInvestedValue = holdings.stream()
-                .map(Holding::getTotalCost)
-                .reduce(BigDecimal.ZERO, BigDecimal::add);
-        
-        BigDecimal totalCurrentValue = calculateTotalCurrentValue(holdings);
-        BigDecimal totalPnL = totalCurrentValue.subtract(totalInvestedValue);
-        BigDecimal pnLPercentage = totalInvestedValue.compareTo(BigDecimal.ZERO) > 0 
-                ? totalPnL.divide(totalInvestedValue, 4, RoundingMode.HALF_UP).multiply(BigDecimal.valueOf(100))
-                : BigDecimal.ZERO;
-        
-        List<HoldingResponse> holdingResponses = holdings.stream()
-                .map(this::mapToHoldingResponse)
+        PortfolioValuation valuation = valuationEngine.getValuation(userId);
+        AccountState account = accountStateCache.get(userId);
+        AccountState.Funds funds = account.getFunds();
+        List<HoldingResponse> holdings = valuation.getPositions().stream()
+                .map(position -> mapToHoldingResponse(position, symbolRegistry.findById(position.getSymbolId()).orElse(null),
+                        account.getPosition(position.getSymbolId()).reserved()))
                 .collect(Collectors.toList());
         
         return PortfolioSummary.builder()
-                .cashBalance(wallet.getBalance())
-                .lockedBalance(wallet.getLockedBalance())
-                .totalInvestedValue(totalInvestedValue)
-                .totalCurrentValue(totalCurrentValue)
-                .totalPnL(totalPnL)
-                .pnLPercentage(pnLPercentage)
-                .holdings(holdingResponses)
+                .cashBalance(funds.balance())
+                .lockedBalance(funds.locked())
+                .totalInvestedValue(valuation.getCostBasis())
+                .totalCurrentValue(valuation.getMarketValue())
+                .totalPnL(valuation.getUnrealizedPnL())
+                .pnLPercentage(valuation.getPnLPercentage())
+                .holdings(holdings)
                 .build();
     }
     
     public List<HoldingResponse> getHoldings(String userId) {
-        List<Holding> holdings = holdingRepository.findByUserId(userId);
-        return holdings.stream()
-                .map(this::mapToHoldingResponse)
-                .collect(Collectors.toList());
+        return mapToHoldingResponses(holdingRepository.findByUserId(userId));
     }
     
-    @Transactional
     public void updateHolding(String userId, String symbolId, Long quantity, 
                              BigDecimal price, Order.OrderSide side) {
-        Holding holding = holdingRepository.findByUserIdAndSymbolId(userId, symbolId)
-                .orElse(Holding.builder()
-                        .userId(userId)
-                        .symbolId(symbolId)
-                        .quantity(0L)
-                        .averagePrice(BigDecimal.ZERO)
-                        .totalCost(BigDecimal.ZERO)
-                        .build());
-        
         if (side == Order.OrderSide.BUY) {
-            // Calculate new average price
-            BigDecimal currentValue = holding.getAveragePrice().multiply(BigDecimal.valueOf(holding.getQuantity()));
-            BigDecimal newValue = price.multiply(BigDecimal.valueOf(quantity));
-            BigDecimal totalValue = currentValue.add(newValue);
-            Long totalQuantity = holding.getQuantity() + quantity;
-            
-            holding.setQuantity(totalQuantity);
-            holding.setAveragePrice(totalValue.divide(BigDecimal.valueOf(totalQuantity), 4, RoundingMode.HALF_UP));
-            holding.setTotalCost(totalValue);
-            
-            holdingRepository.save(holding);
+            holdingRepository.applyBuy(userId, symbolId, quantity, price.multiply(BigDecimal.valueOf(quantity)));
         } else {
-            // Reduce quantity
-            Long newQuantity = holding.getQuantity() - quantity;
-            if (newQuantity <= 0) {
-                holdingRepository.deleteByUserIdAndSymbolId(userId, symbolId);
-            } else {
-                BigDecimal soldValue = price.multiply(BigDecimal.valueOf(quantity));
-                BigDecimal remainingInvestment = holding.getTotalCost()
-                        .subtract(holding.getAveragePrice().multiply(BigDecimal.valueOf(quantity)));
-                
-                holding.setQuantity(newQuantity);
-                holding.setTotalCost(remainingInvestment);
-                holdingRepository.save(holding);
-            }
+            holdingRepository.applySell(userId, symbolId, quantity);
         }
+        // Written outside settlement, so the valuation is reloaded from holdings
+        valuationEngine.evict(List.of(userId));
         
         log.info("Updated holding for user: {} symbol: {} side: {} quantity: {}", 
                 userId, symbolId, side, quantity);
     }
     
     public void validateSufficientFunds(String userId, BigDecimal requiredAmount) {
-        Wallet wallet = getWallet(userId);
-        BigDecimal availableBalance = wallet.getBalance().subtract(wallet.getLockedBalance());
+        BigDecimal availableBalance = getAvailableBalance(userId);
         
         if (availableBalance.compareTo(requiredAmount) < 0) {
             throw new RuntimeException("Insufficient funds. Required: " + requiredAmount + 
@@ -122,89 +85,116 @@ public class PortfolioService {
         }
     }
     
+    public BigDecimal getAvailableBalance(String userId) {
+        return accountStateCache.get(userId).getFunds().available();
+    }
+    
+    /** Shares per symbol not already reserved by open SELL orders. */
+    public Map<String, Long> getHoldingQuantities(String userId) {
+        return accountStateCache.get(userId).getAvailableQuantities();
+    }
+    
     public void validateSufficientHoldings(String userId, String symbolId, Long requiredQuantity) {
-        Holding holding = holdingRepository.findByUserIdAndSymbolId(userId, symbolId)
-                .orElseThrow(() -> new RuntimeException("No holdings found for symbol"));
-        
-        if (holding.getQuantity() < requiredQuantity) {
+        long available = accountStateCache.get(userId).getPosition(symbolId).available();
+        if (available < requiredQuantity) {
             throw new RuntimeException("Insufficient holdings. Required: " + requiredQuantity + 
-                    ", Available: " + holding.getQuantity());
+                    ", Available: " + available);
         }
     }
     
-    @Transactional
-    public void lockFunds(String userId, BigDecimal amount) {
-        Wallet wallet = getWallet(userId);
-        
-        BigDecimal availableBalance = wallet.getBalance().subtract(wallet.getLockedBalance());
-        if (availableBalance.compareTo(amount) < 0) {
-            throw new RuntimeException("Insufficient funds to lock");
-        }
-        
-        wallet.setLockedBalance(wallet.getLockedBalance().add(amount));
-        walletRepository.save(wallet);
-        
-        log.info("Locked funds for user: {} amount: {}", userId, amount);
+    // Wallet changes go through the account state cache, which checks and reserves atomically in
+    // memory and writes the wallet back asynchronously; fund locks are also written through, guarded
+    
+    public void lockFunds(String userId, BigDecimal amount, String reference) {
+        accountStateCache.reserveFunds(userId, amount, reference);
+        log.debug("Locked funds for user: {} amount: {}", userId, amount);
     }
     
-    @Transactional
-    public void releaseFunds(String userId, BigDecimal amount) {
-        Wallet wallet = getWallet(userId);
-        wallet.setLockedBalance(wallet.getLockedBalance().subtract(amount));
-        walletRepository.save(wallet);
-        
-        log.info("Released funds for user: {} amount: {}", userId, amount);
+    public void releaseFunds(String userId, BigDecimal amount, String reference) {
+        accountStateCache.releaseFunds(userId, amount, reference);
+        log.debug("Released funds for user: {} amount: {}", userId, amount);
     }
     
-    @Transactional
-    public void deductFunds(String userId, BigDecimal amount) {
-        Wallet wallet = getWallet(userId);
-        wallet.setBalance(wallet.getBalance().subtract(amount));
-        wallet.setLockedBalance(wallet.getLockedBalance().subtract(amount));
-        walletRepository.save(wallet);
-        
-        log.info("Deducted funds for user: {} amount: {}", userId, amount);
+    public void deductFunds(String userId, BigDecimal amount, String reference) {
+        accountStateCache.deductFunds(userId, amount, reference);
+        log.debug("Deducted funds for user: {} amount: {}", userId, amount);
     }
     
-    @Transactional
-    public void addFunds(String userId, BigDecimal amount) {
-        Wallet wallet = getWallet(userId);
-        wallet.setBalance(wallet.getBalance().add(amount));
-        walletRepository.save(wallet);
-        
-        log.info("Added funds for user: {} amount: {}", userId, amount);
+    public void addFunds(String userId, BigDecimal amount, String reference) {
+        accountStateCache.adjustBalance(userId, amount, LedgerEntry.EntryType.DEPOSIT, reference);
+        log.debug("Added funds for user: {} amount: {}", userId, amount);
     }
     
     public void lockHoldings(String userId, String symbolId, Long quantity) {
-        // In a real implementation, you would track locked holdings separately
-        // For simplicity, we're just validating that holdings exist
-        validateSufficientHoldings(userId, symbolId, quantity);
-        log.info("Locked holdings for user: {} symbol: {} quantity: {}", userId, symbolId, quantity);
+        accountStateCache.reserveHoldings(userId, symbolId, quantity);
+        log.debug("Locked holdings for user: {} symbol: {} quantity: {}", userId, symbolId, quantity);
     }
     
     public void releaseHoldings(String userId, String symbolId, Long quantity) {
-        log.info("Released holdings for user: {} symbol: {} quantity: {}", userId, symbolId, quantity);
+        accountStateCache.releaseHoldings(userId, symbolId, quantity);
+        log.debug("Released holdings for user: {} symbol: {} quantity: {}", userId, symbolId, quantity);
     }
     
-    private Wallet getWallet(String userId) {
-        return walletRepository.findByUserId(userId)
-                .orElseThrow(() -> new RuntimeException("Wallet not found for user"));
+    /**
+     * Releases what cancelled or expired orders still had locked for their unfilled part: for
+     * buys the locked funds their fills have not released, for sells the unfilled quantity. Each
+     * order is released on its own, so every release is recorded in the ledger against its order.
+     */
+    public void releaseUnfilled(List<Order> orders) {
+        for (Order order : orders) {
+            long filled = order.getFilledQuantity() != null ? order.getFilledQuantity() : 0L;
+            long unfilled = order.getQuantity() - filled;
+            if (order.getSide() == Order.OrderSide.BUY) {
+                // Settled fills have released their share already
+                BigDecimal unreleased = OrderLocks.lockedAmount(order).subtract(OrderLocks.lockedUpTo(order, filled));
+                if (unreleased.signum() > 0) {
+                    releaseFunds(order.getUserId(), unreleased, order.getId());
+                }
+            } else {
+                releaseHoldings(order.getUserId(), order.getSymbolId(), unfilled);
+            }
+        }
     }
     
-    private BigDecimal calculateTotalCurrentValue(List<Holding> holdings) {
+    /**
+     * Maps holdings with their symbols and current prices looked up in bulk: one symbols query and
+     * one Redis MGET however many holdings there are.
+     */
+    private List<HoldingResponse> mapToHoldingResponses(List<Holding> holdings) {
+        if (holdings.isEmpty()) {
+            return List.of();
+        }
+        List<String> symbolIds = holdings.stream().map(Holding::getSymbolId).toList();
+        Map<String, BigDecimal> prices = marketDataService.getCurrentPrices(symbolIds);
+        
         return holdings.stream()
-                .map(this::calculateHoldingCurrentValue)
-                .reduce(BigDecimal.ZERO, BigDecimal::add);
+                .map(holding -> mapToHoldingResponse(holding, symbolRegistry.findById(holding.getSymbolId()).orElse(null),
+                        prices.get(holding.getSymbolId())))
+                .collect(Collectors.toList());
     }
     
-    private BigDecimal calculateHoldingCurrentValue(Holding holding) {
-        BigDecimal currentPrice = marketDataService.getCurrentPrice(holding.getSymbolId());
-        return currentPrice.multiply(BigDecimal.valueOf(holding.getQuantity()));
+    private HoldingResponse mapToHoldingResponse(PortfolioValuation.PositionValuation position, Symbol symbol,
+                                                 long lockedQuantity) {
+        BigDecimal pnLPercentage = position.getCostBasis().compareTo(BigDecimal.ZERO) > 0
+                ? position.getUnrealizedPnL().divide(position.getCostBasis(), 4, RoundingMode.HALF_UP).multiply(BigDecimal.valueOf(100))
+                : BigDecimal.ZERO;
+        
+        return HoldingResponse.builder()
+                .symbolId(position.getSymbolId())
+                .symbol(symbol != null ? symbol.getSymbol() : "UNKNOWN")
+                .companyName(symbol != null ? symbol.getCompanyName() : "Unknown Company")
+                .quantity(position.getQuantity())
+                .lockedQuantity(lockedQuantity)
+                .averagePrice(position.getCostBasis().divide(BigDecimal.valueOf(position.getQuantity()), 2, RoundingMode.HALF_EVEN))
+                .currentPrice(position.getPrice())
+                .totalCost(position.getCostBasis())
+                .currentValue(position.getMarketValue())
+                .pnL(position.getUnrealizedPnL())
+                .pnLPercentage(pnLPercentage)
+                .build();
     }
     
-    private HoldingResponse mapToHoldingResponse(Holding holding) {
-        Symbol symbol = symbolRepository.findById(holding.getSymbolId()).orElse(null);
-        BigDecimal currentPrice = marketDataService.getCurrentPrice(holding.getSymbolId());
+    private HoldingResponse mapToHoldingResponse(Holding holding, Symbol symbol, BigDecimal currentPrice) {
         BigDecimal currentValue = currentPrice.multiply(BigDecimal.valueOf(holding.getQuantity()));
         BigDecimal pnL = currentValue.subtract(holding.getTotalCost());
         BigDecimal pnLPercentage = holding.getTotalCost().compareTo(BigDecimal.ZERO) > 0 
@@ -216,6 +206,7 @@ public class PortfolioService {
                 .symbol(symbol != null ? symbol.getSymbol() : "UNKNOWN")
                 .companyName(symbol != null ? symbol.getCompanyName() : "Unknown Company")
                 .quantity(holding.getQuantity())
+                .lockedQuantity(holding.getLockedQuantity() != null ? holding.getLockedQuantity() : 0L)
                 .averagePrice(holding.getAveragePrice())
                 .currentPrice(currentPrice)
                 .totalCost(holding.getTotalCost())
@@ -0,0 +1,78 @@
+package com.stockbrokerage.service;
+
+import com.stockbrokerage.entity.Trade;
+import com.stockbrokerage.repository.TradeRepository;
+import jakarta.annotation.PostConstruct;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.index.Index;
+import org.springframework.data.mongodb.core.index.IndexOperations;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.stereotype.Service;
+
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+/**
+ * The trade tape: every settled fill, in a time-series collection bucketed per symbol. Per-symbol
+ * scans use the buckets; per-user scans use a secondary index on the fills (MongoDB 6.0+).
+ */
+@Service
+@RequiredArgsConstructor
+@Slf4j
+public class TradeService {
+    
+    private final TradeRepository tradeRepository;
+    private final MongoTemplate mongoTemplate;
+    
+    @PostConstruct
+    public void createTape() {
+        if (!mongoTemplate.collectionExists(Trade.class)) {
+            mongoTemplate.createCollection(Trade.class);
+            log.info("Created time-series collection for the trade tape");
+        }
+        IndexOperations indexes = mongoTemplate.indexOps(Trade.class);
+        indexes.ensureIndex(new Index().on("userId", Sort.Direction.ASC).on("executedAt", Sort.Direction.DESC));
+        indexes.ensureIndex(new Index().on("symbolId", Sort.Direction.ASC).on("executedAt", Sort.Direction.DESC));
+    }
+    
+    /**
+     * Appends fills to the tape in one insert, skipping any already on it: time-series collections
+     * do not enforce a unique _id, so a redelivered fill would otherwise be taped twice.
+     */
+    public void record(List<Trade> trades) {
+        if (trades.isEmpty()) {
+            return;
+        }
+        Query query = Query.query(Criteria.where("userId").in(trades.stream().map(Trade::getUserId).distinct().toList())
+                .and("_id").in(trades.stream().map(Trade::getId).toList()));
+        query.fields().include("_id");
+        Set<String> taped = mongoTemplate.find(query, Trade.class).stream().map(Trade::getId).collect(Collectors.toSet());
+        List<Trade> fresh = trades.stream().filter(trade -> !taped.contains(trade.getId())).toList();
+        if (!fresh.isEmpty()) {
+            tradeRepository.insert(fresh);
+        }
+    }
+    
+    public List<Trade> getUserTrades(String userId, LocalDateTime from, LocalDateTime to, int limit) {
+        return tradeRepository.findByUserIdAndExecutedAtBetweenOrderByExecutedAtDesc(userId, from, to,
+                PageRequest.of(0, limit));
+    }
+    
+    public List<Trade> getSymbolTrades(String symbolId, LocalDateTime from, LocalDateTime to, int limit) {
+        return tradeRepository.findBySymbolIdAndExecutedAtBetweenOrderByExecutedAtDesc(symbolId, from, to,
+                PageRequest.of(0, limit));
+    }
+    
+    /** Shares traded in a symbol between {@code from} (inclusive) and {@code to} (exclusive). */
+    public long getVolume(String symbolId, LocalDateTime from, LocalDateTime to) {
+        Long volume = tradeRepository.sumQuantityBySymbolId(symbolId, from, to);
+        return volume != null ? volume : 0L;
+    }
+}
@@ -1,11 +1,13 @@
 package com.stockbrokerage.service;
 
+import com.stockbrokerage.entity.LedgerEntry;
 import com.stockbrokerage.entity.Wallet;
 import com.stockbrokerage.repository.WalletRepository;
+import com.stockbrokerage.risk.AccountState;
+import com.stockbrokerage.risk.AccountStateCache;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.stereotype.Service;
-import org.springframework.transaction.annotation.Transactional;
 
 import java.math.BigDecimal;
 
@@ -15,13 +17,19 @@ import java.math.BigDecimal;
 public class WalletService {
     
     private final WalletRepository walletRepository;
+    private final AccountStateCache accountStateCache;
     
     public Wallet getWalletByUserId(String userId) {
-        return walletRepository.findByUserId(userId)
+        Wallet wallet = walletRepository.findByUserId(userId)
                 .orElseThrow(() -> new RuntimeException("Wallet not found for user: " + userId));
+        
+        // Balances are owned by the account state cache; the stored copy may lag it slightly
+        AccountState.Funds funds = accountStateCache.get(userId).getFunds();
+        wallet.setBalance(funds.balance());
+        wallet.setLockedBalance(funds.locked());
+        return wallet;
     }
     
-    @Transactional
     public Wallet addBalance(String userId, BigDecimal amount, String paymentMethod) {
         log.info("Adding balance: {} for user: {} via payment method: {}", amount, userId, paymentMethod);
         
@@ -29,16 +37,14 @@ public class WalletService {
             throw new RuntimeException("Amount must be positive");
         }
         
-        Wallet wallet = getWalletByUserId(userId);
-        wallet.setBalance(wallet.getBalance().add(amount));
+        accountStateCache.adjustBalance(userId, amount, LedgerEntry.EntryType.DEPOSIT, null);
         
-        Wallet savedWallet = walletRepository.save(wallet);
+        Wallet savedWallet = getWalletByUserId(userId);
         log.info("Balance added successfully. New balance: {} for user: {}", savedWallet.getBalance(), userId);
         
         return savedWallet;
     }
     
-    @Transactional
     public Wallet subtractBalance(String userId, BigDecimal amount) {
         log.info("Subtracting balance: {} for user: {}", amount, userId);
         
@@ -46,17 +52,11 @@ public class WalletService {
             throw new RuntimeException("Amount must be positive");
         }
         
-        Wallet wallet = getWalletByUserId(userId);
-        
-        if (wallet.getBalance().compareTo(amount) < 0) {
-            throw new RuntimeException("Insufficient funds");
-        }
-        
-        wallet.setBalance(wallet.getBalance().subtract(amount));
+        accountStateCache.withdraw(userId, amount, null);
         
-        Wallet savedWallet = walletRepository.save(wallet);
+        Wallet savedWallet = getWalletByUserId(userId);
         log.info("Balance subtracted successfully. New balance: {} for user: {}", savedWallet.getBalance(), userId);
         
         return savedWallet;
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,223 @@
+package com.stockbrokerage.symbols;
+
+import com.stockbrokerage.entity.Symbol;
+import com.stockbrokerage.repository.SymbolRepository;
+import jakarta.annotation.PostConstruct;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.mongodb.core.mapping.event.AbstractMongoEventListener;
+import org.springframework.data.mongodb.core.mapping.event.AfterDeleteEvent;
+import org.springframework.data.mongodb.core.mapping.event.AfterSaveEvent;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+
+/**
+ * Every symbol held in process, looked up by Mongo id or ticker without a database round trip,
+ * and numbered with a dense ordinal so hot paths can keep per-symbol state in arrays
+ * ({@link SymbolSlots}) rather than string-keyed maps.
+ *
+ * Loaded at startup and kept current from the symbols this process saves or deletes; symbols
+ * written by other instances arrive through read-through on a miss or the periodic refresh.
+ * Misses are remembered as well, so an unknown id or ticker asked for repeatedly reaches Mongo
+ * once per refresh rather than on every lookup.
+ * Ordinals are assigned in the order symbols are first seen and never reused, so they are only
+ * meaningful within this process and must not be persisted.
+ *
+ * Symbols handed out are shared: treat them as read-only.
+ */
+@Component
+@RequiredArgsConstructor
+@Slf4j
+public class SymbolRegistry extends AbstractMongoEventListener<Symbol> {
+
+    private final SymbolRepository symbolRepository;
+
+    private volatile Table table = Table.EMPTY;
+    // Ids and tickers Mongo did not have when last asked; forgotten on every refresh or save
+    private final Set<String> missingIds = ConcurrentHashMap.newKeySet();
+    private final Set<String> missingTickers = ConcurrentHashMap.newKeySet();
+
+    /** One immutable version of the registry, replaced whole on every change. */
+    private record Table(Symbol[] symbols, Map<String, Integer> byId, Map<String, Integer> byTicker) {
+        static final Table EMPTY = new Table(new Symbol[0], Map.of(), Map.of());
+
+        Symbol byId(String symbolId) {
+            Integer ordinal = byId.get(symbolId);
+            return ordinal != null ? symbols[ordinal] : null;
+        }
+
+        Symbol byTicker(String ticker) {
+            Integer ordinal = byTicker.get(ticker);
+            return ordinal != null ? symbols[ordinal] : null;
+        }
+    }
+
+    @PostConstruct
+    public void load() {
+        try {
+            refresh();
+            log.info("Loaded {} symbols into the registry", size());
+        } catch (Exception e) {
+            // Lookups read through to Mongo until the next refresh succeeds
+            log.error("Error loading symbol registry", e);
+        }
+    }
+
+    @Scheduled(fixedDelayString = "${app.symbols.refresh-interval-ms:60000}")
+    public void refresh() {
+        register(symbolRepository.findAll());
+        forgetMisses();
+    }
+
+    public Optional<Symbol> findById(String symbolId) {
+        if (symbolId == null) {
+            return Optional.empty();
+        }
+        Symbol symbol = table.byId(symbolId);
+        if (symbol != null) {
+            return Optional.of(symbol);
+        }
+        if (missingIds.contains(symbolId)) {
+            return Optional.empty();
+        }
+        Optional<Symbol> found = symbolRepository.findById(symbolId).map(this::register);
+        if (found.isEmpty()) {
+            missingIds.add(symbolId);
+        }
+        return found;
+    }
+
+    public Optional<Symbol> findByTicker(String ticker) {
+        if (ticker == null) {
+            return Optional.empty();
+        }
+        Symbol symbol = table.byTicker(ticker);
+        if (symbol != null) {
+            return Optional.of(symbol);
+        }
+        if (missingTickers.contains(ticker)) {
+            return Optional.empty();
+        }
+        Optional<Symbol> found = symbolRepository.findBySymbol(ticker).map(this::register);
+        if (found.isEmpty()) {
+            missingTickers.add(ticker);
+        }
+        return found;
+    }
+
+    /** The ticker of a symbol id, or null if there is no such symbol. */
+    public String ticker(String symbolId) {
+        return findById(symbolId).map(Symbol::getSymbol).orElse(null);
+    }
+
+    /** The symbol's ordinal, or -1 if there is no such symbol. */
+    public int ordinal(String symbolId) {
+        if (symbolId == null) {
+            return -1;
+        }
+        Integer ordinal = table.byId.get(symbolId);
+        if (ordinal != null) {
+            return ordinal;
+        }
+        return findById(symbolId).map(symbol -> table.byId.get(symbol.getId())).orElse(-1);
+    }
+
+    /** The symbol numbered {@code ordinal}, or null if it has been deleted. */
+    public Symbol get(int ordinal) {
+        return table.symbols[ordinal];
+    }
+
+    /** Ordinals handed out so far; every ordinal is below this. */
+    public int size() {
+        return table.symbols.length;
+    }
+
+    @Override
+    public void onAfterSave(AfterSaveEvent<Symbol> event) {
+        register(event.getSource());
+        forgetMisses();
+    }
+
+    @Override
+    public void onAfterDelete(AfterDeleteEvent<Symbol> event) {
+        // The event carries only the delete query, so the registry is reloaded to drop what it removed
+        try {
+            // Anything registered before the read and missing from it was deleted
+            Table before = table;
+            List<Symbol> remaining = symbolRepository.findAll();
+            Set<String> remainingIds = remaining.stream().map(Symbol::getId).collect(Collectors.toSet());
+            before.byId.keySet().stream().filter(id -> !remainingIds.contains(id)).forEach(this::unregister);
+            register(remaining);
+        } catch (Exception e) {
+            log.error("Error refreshing symbol registry after delete", e);
+        }
+    }
+
+    private void forgetMisses() {
+        missingIds.clear();
+        missingTickers.clear();
+    }
+
+    private Symbol register(Symbol symbol) {
+        register(List.of(symbol));
+        return symbol;
+    }
+
+    private synchronized void register(Iterable<Symbol> changed) {
+        Table current = table;
+        Symbol[] symbols = current.symbols;
+        Map<String, Integer> byId = null;
+        Map<String, Integer> byTicker = null;
+        for (Symbol symbol : changed) {
+            if (symbol.getId() == null) {
+                continue;
+            }
+            if (byId == null) {
+                symbols = Arrays.copyOf(symbols, symbols.length);
+                byId = new HashMap<>(current.byId);
+                byTicker = new HashMap<>(current.byTicker);
+            }
+            Integer ordinal = byId.get(symbol.getId());
+            if (ordinal == null) {
+                ordinal = symbols.length;
+                symbols = Arrays.copyOf(symbols, ordinal + 1);
+                byId.put(symbol.getId(), ordinal);
+            } else if (symbols[ordinal] != null && !Objects.equals(symbols[ordinal].getSymbol(), symbol.getSymbol())) {
+                byTicker.remove(symbols[ordinal].getSymbol());
+            }
+            symbols[ordinal] = symbol;
+            byTicker.put(symbol.getSymbol(), ordinal);
+        }
+        if (byId != null) {
+            table = new Table(symbols, byId, byTicker);
+        }
+    }
+
+    private synchronized void unregister(String symbolId) {
+        Table current = table;
+        Integer ordinal = current.byId.get(symbolId);
+        if (ordinal == null) {
+            return;
+        }
+        Symbol[] symbols = Arrays.copyOf(current.symbols, current.symbols.length);
+        Map<String, Integer> byId = new HashMap<>(current.byId);
+        Map<String, Integer> byTicker = new HashMap<>(current.byTicker);
+        // The ordinal stays taken, so arrays indexed by it never see another symbol in its slot
+        byId.remove(symbolId);
+        if (symbols[ordinal] != null) {
+            byTicker.remove(symbols[ordinal].getSymbol(), ordinal);
+        }
+        symbols[ordinal] = null;
+        table = new Table(symbols, byId, byTicker);
+    }
+}
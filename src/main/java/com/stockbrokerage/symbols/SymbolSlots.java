@@ -0,0 +1,70 @@
+package com.stockbrokerage.symbols;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Per-symbol values indexed by {@link SymbolRegistry} ordinal: a read is an array load rather than
+ * a hash of the symbol id. Grows as new symbols are registered; safe for concurrent use.
+ */
+public final class SymbolSlots<T> {
+
+    private volatile AtomicReferenceArray<T> slots;
+
+    public SymbolSlots() {
+        this(64);
+    }
+
+    public SymbolSlots(int capacity) {
+        this.slots = new AtomicReferenceArray<>(Math.max(capacity, 1));
+    }
+
+    /** The value for {@code ordinal}, or null if none was set. */
+    public T get(int ordinal) {
+        AtomicReferenceArray<T> current = slots;
+        return ordinal < current.length() ? current.get(ordinal) : null;
+    }
+
+    public void set(int ordinal, T value) {
+        AtomicReferenceArray<T> current = slotsFor(ordinal);
+        current.set(ordinal, value);
+        // A concurrent grow may have copied the slot before this write landed
+        while (slots != current) {
+            current = slots;
+            current.set(ordinal, value);
+        }
+    }
+
+    /** Sets the value unless one is already there. */
+    public void setIfAbsent(int ordinal, T value) {
+        AtomicReferenceArray<T> current = slotsFor(ordinal);
+        if (!current.compareAndSet(ordinal, null, value)) {
+            return;
+        }
+        while (slots != current) {
+            current = slots;
+            current.compareAndSet(ordinal, null, value);
+        }
+    }
+
+    private AtomicReferenceArray<T> slotsFor(int ordinal) {
+        AtomicReferenceArray<T> current = slots;
+        return ordinal < current.length() ? current : grow(ordinal);
+    }
+
+    private synchronized AtomicReferenceArray<T> grow(int ordinal) {
+        AtomicReferenceArray<T> current = slots;
+        if (ordinal < current.length()) {
+            return current;
+        }
+        int capacity = current.length();
+        while (capacity <= ordinal) {
+            capacity *= 2;
+        }
+        AtomicReferenceArray<T> grown = new AtomicReferenceArray<>(capacity);
+        for (int i = 0; i < current.length(); i++) {
+            grown.set(i, current.get(i));
+        }
+        slots = grown;
+        return grown;
+    }
+}
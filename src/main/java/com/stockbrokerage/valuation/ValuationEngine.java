@@ -0,0 +1,298 @@
+package com.stockbrokerage.valuation;
+
+import com.stockbrokerage.dto.PortfolioValuation;
+import com.stockbrokerage.engine.Prices;
+import com.stockbrokerage.entity.Holding;
+import com.stockbrokerage.entity.Order;
+import com.stockbrokerage.events.MarketDataEvent;
+import com.stockbrokerage.events.TradeExecutedEvent;
+import com.stockbrokerage.repository.HoldingRepository;
+import com.stockbrokerage.service.MarketDataService;
+import com.stockbrokerage.symbols.SymbolRegistry;
+import com.stockbrokerage.symbols.SymbolSlots;
+import com.stockbrokerage.websocket.MarketDataWebSocketHandler;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.kafka.annotation.KafkaListener;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Keeps each user's market value and unrealized P&L current in memory, so reading a valuation, or
+ * the portfolio summary built on it, is a map lookup. Portfolios are loaded from holdings on first use and then follow settled fills.
+ *
+ * A reverse index from symbol to the users holding it lets a tick revalue only those users: each
+ * position is repriced by the difference to the price it was last valued at, in fixed-point
+ * ticks. Prices and the reverse index are arrays indexed by {@link SymbolRegistry} ordinal, each
+ * symbol's resolved once per batch. Users whose valuation changed are pushed an update over WebSocket every
+ * {@code app.valuation.push-interval-ms}.
+ */
+@Component
+@RequiredArgsConstructor
+@Slf4j
+public class ValuationEngine {
+
+    private final HoldingRepository holdingRepository;
+    private final MarketDataService marketDataService;
+    private final MarketDataWebSocketHandler webSocketHandler;
+    private final SymbolRegistry symbolRegistry;
+
+    private final ConcurrentHashMap<String, Portfolio> portfolios = new ConcurrentHashMap<>();
+    // Users with a loaded portfolio holding each symbol, by ordinal
+    private final SymbolSlots<Set<String>> holders = new SymbolSlots<>();
+    // Latest price per symbol ordinal, in ticks
+    private final SymbolSlots<Long> prices = new SymbolSlots<>();
+    // Users whose valuation changed since the last push
+    private final Set<String> changed = ConcurrentHashMap.newKeySet();
+
+    public PortfolioValuation getValuation(String userId) {
+        return get(userId).snapshot();
+    }
+
+    /** Revalues the holders of each symbol ticked, at the batch's last price for it. */
+    @KafkaListener(topics = "market-data", groupId = "portfolio-valuation-group",
+            containerFactory = "marketDataListenerContainerFactory")
+    public void onMarketData(List<MarketDataEvent> events) {
+        Map<String, BigDecimal> latest = new LinkedHashMap<>();
+        for (MarketDataEvent event : events) {
+            if (event.getPrice() != null) {
+                latest.put(event.getSymbolId(), event.getPrice());
+            }
+        }
+        latest.forEach((symbolId, price) -> {
+            int ordinal = symbolRegistry.ordinal(symbolId);
+            if (ordinal < 0) {
+                return;
+            }
+            long ticks = Prices.toTicks(price);
+            // Published before the holders are read: a portfolio registering meanwhile reads it
+            prices.set(ordinal, ticks);
+            Set<String> users = holders.get(ordinal);
+            if (users == null) {
+                return;
+            }
+            for (String userId : users) {
+                Portfolio portfolio = portfolios.get(userId);
+                if (portfolio != null && portfolio.reprice(symbolId, ticks)) {
+                    changed.add(userId);
+                }
+            }
+        });
+    }
+
+    /**
+     * Applies settled fills. Settlement calls this before it writes the fills' holdings, so a
+     * portfolio loaded here reads holdings without them and counts each fill exactly once.
+     */
+    public void applyTrades(List<TradeExecutedEvent> events) {
+        for (TradeExecutedEvent event : events) {
+            String userId = event.getUserId();
+            String symbolId = event.getSymbolId();
+            Portfolio portfolio = get(userId);
+            int ordinal = symbolRegistry.ordinal(symbolId);
+            if (event.getSide() == Order.OrderSide.BUY) {
+                Long last = ordinal >= 0 ? prices.get(ordinal) : null;
+                if (ordinal >= 0) {
+                    holdersOf(ordinal).add(userId);
+                }
+                long price = last != null ? last : Prices.toTicks(event.getExecutionPrice());
+                portfolio.buy(symbolId, event.getQuantity(), event.getTotalValue(), price);
+            } else if (portfolio.sell(symbolId, event.getQuantity())) {
+                unregister(userId, symbolId);
+            }
+            changed.add(userId);
+        }
+    }
+
+    /** Drops the portfolios of fills whose settlement failed; they are reloaded from holdings. */
+    public void evict(Collection<String> userIds) {
+        for (String userId : userIds) {
+            Portfolio portfolio = portfolios.remove(userId);
+            if (portfolio != null) {
+                portfolio.symbols().forEach(symbolId -> unregister(userId, symbolId));
+            }
+        }
+    }
+
+    @Scheduled(fixedDelayString = "${app.valuation.push-interval-ms:500}")
+    public void push() {
+        if (changed.isEmpty()) {
+            return;
+        }
+        Set<String> connected = webSocketHandler.getConnectedUserIds();
+        for (String userId : new ArrayList<>(changed)) {
+            changed.remove(userId);
+            Portfolio portfolio = portfolios.get(userId);
+            if (portfolio != null && connected.contains(userId)) {
+                Map<String, Object> message = new HashMap<>();
+                message.put("type", "PORTFOLIO_VALUATION");
+                message.put("valuation", portfolio.snapshot());
+                webSocketHandler.sendToUser(userId, message);
+            }
+        }
+    }
+
+    private Portfolio get(String userId) {
+        Portfolio portfolio = portfolios.get(userId);
+        return portfolio != null ? portfolio : portfolios.computeIfAbsent(userId, this::load);
+    }
+
+    private Portfolio load(String userId) {
+        Portfolio portfolio = new Portfolio(userId);
+        for (Holding holding : holdingRepository.findByUserId(userId)) {
+            if (holding.getQuantity() == null || holding.getQuantity() <= 0) {
+                continue;
+            }
+            String symbolId = holding.getSymbolId();
+            int ordinal = symbolRegistry.ordinal(symbolId);
+            // Registered before the price is read, so a tick racing the load is not missed
+            if (ordinal >= 0) {
+                holdersOf(ordinal).add(userId);
+            }
+            BigDecimal cost = holding.getTotalCost() != null ? holding.getTotalCost() : BigDecimal.ZERO;
+            portfolio.buy(symbolId, holding.getQuantity(), cost, priceOf(ordinal, holding));
+        }
+        log.debug("Loaded valuation for user: {}", userId);
+        return portfolio;
+    }
+
+    private long priceOf(int ordinal, Holding holding) {
+        Long ticks = ordinal >= 0 ? prices.get(ordinal) : null;
+        if (ticks != null) {
+            return ticks;
+        }
+        BigDecimal price = ordinal >= 0 ? marketDataService.getLastPrice(ordinal) : null;
+        if (price == null) {
+            // Without any price yet the position is valued at cost
+            price = holding.getAveragePrice() != null ? holding.getAveragePrice() : BigDecimal.ZERO;
+        }
+        return Prices.toTicks(price);
+    }
+
+    private Set<String> holdersOf(int ordinal) {
+        Set<String> users = holders.get(ordinal);
+        if (users == null) {
+            holders.setIfAbsent(ordinal, ConcurrentHashMap.newKeySet());
+            users = holders.get(ordinal);
+        }
+        return users;
+    }
+
+    private void unregister(String userId, String symbolId) {
+        int ordinal = symbolRegistry.ordinal(symbolId);
+        Set<String> users = ordinal >= 0 ? holders.get(ordinal) : null;
+        if (users != null) {
+            users.remove(userId);
+        }
+    }
+
+    /** One user's positions and their running totals; ticks and fills for it may come from different threads. */
+    private static final class Portfolio {
+
+        private final String userId;
+        private final Map<String, Position> positions = new HashMap<>();
+        private long marketValue; // ticks
+        private BigDecimal costBasis = BigDecimal.ZERO;
+
+        Portfolio(String userId) {
+            this.userId = userId;
+        }
+
+        synchronized boolean reprice(String symbolId, long price) {
+            Position position = positions.get(symbolId);
+            if (position == null || position.price == price) {
+                return false;
+            }
+            marketValue += position.quantity * (price - position.price);
+            position.price = price;
+            return true;
+        }
+
+        synchronized void buy(String symbolId, long quantity, BigDecimal cost, long price) {
+            Position position = positions.get(symbolId);
+            if (position == null) {
+                position = new Position(price);
+                positions.put(symbolId, position);
+            }
+            marketValue += quantity * position.price;
+            position.quantity += quantity;
+            position.cost = position.cost.add(cost);
+            costBasis = costBasis.add(cost);
+        }
+
+        /** Removes sold shares at the average price, as settlement does; true if the position closed. */
+        synchronized boolean sell(String symbolId, long quantity) {
+            Position position = positions.get(symbolId);
+            if (position == null) {
+                return false;
+            }
+            BigDecimal averagePrice = position.cost.divide(BigDecimal.valueOf(position.quantity), 2, RoundingMode.HALF_EVEN);
+            BigDecimal cost = averagePrice.multiply(BigDecimal.valueOf(quantity));
+            marketValue -= quantity * position.price;
+            position.quantity -= quantity;
+            position.cost = position.cost.subtract(cost);
+            costBasis = costBasis.subtract(cost);
+            if (position.quantity > 0) {
+                return false;
+            }
+            marketValue -= position.quantity * position.price;
+            costBasis = costBasis.subtract(position.cost);
+            positions.remove(symbolId);
+            return true;
+        }
+
+        synchronized List<String> symbols() {
+            return new ArrayList<>(positions.keySet());
+        }
+
+        synchronized PortfolioValuation snapshot() {
+            List<PortfolioValuation.PositionValuation> rows = new ArrayList<>(positions.size());
+            positions.forEach((symbolId, position) -> {
+                BigDecimal value = Prices.fromTicks(position.quantity * position.price);
+                rows.add(PortfolioValuation.PositionValuation.builder()
+                        .symbolId(symbolId)
+                        .quantity(position.quantity)
+                        .price(Prices.fromTicks(position.price))
+                        .marketValue(value)
+                        .costBasis(position.cost)
+                        .unrealizedPnL(value.subtract(position.cost))
+                        .build());
+            });
+            BigDecimal value = Prices.fromTicks(marketValue);
+            BigDecimal pnL = value.subtract(costBasis);
+            return PortfolioValuation.builder()
+                    .userId(userId)
+                    .marketValue(value)
+                    .costBasis(costBasis)
+                    .unrealizedPnL(pnL)
+                    .pnLPercentage(costBasis.signum() > 0
+                            ? pnL.divide(costBasis, 4, RoundingMode.HALF_UP).multiply(BigDecimal.valueOf(100))
+                            : BigDecimal.ZERO)
+                    .positions(rows)
+                    .valuedAt(LocalDateTime.now())
+                    .build();
+        }
+    }
+
+    private static final class Position {
+        private long quantity;
+        private BigDecimal cost = BigDecimal.ZERO;
+        private long price; // ticks the position is currently valued at
+
+        Position(long price) {
+            this.price = price;
+        }
+    }
+}
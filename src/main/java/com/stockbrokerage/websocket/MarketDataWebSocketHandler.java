@@ -10,7 +10,9 @@ import org.springframework.web.socket.WebSocketSession;
 import org.springframework.web.socket.handler.TextWebSocketHandler;
 
 import java.io.IOException;
+import java.util.HashSet;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 
 @Component
@@ -94,6 +96,11 @@ public class MarketDataWebSocketHandler extends TextWebSocketHandler {
         });
     }
 
+    /** Users with at least one open session. */
+    public Set<String> getConnectedUserIds() {
+        return new HashSet<>(sessionUserMap.values());
+    }
+
     public void registerUserSession(String sessionId, String userId) {
         sessionUserMap.put(sessionId, userId);
         log.debug("Registered user {} for session {}", userId, sessionId);